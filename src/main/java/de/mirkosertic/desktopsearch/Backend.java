@@ -17,15 +17,22 @@ import org.reactivestreams.Subscription;
 import reactor.core.Exceptions;
 import reactor.core.publisher.BaseSubscriber;
 import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class Backend implements ConfigurationChangeListener {
 
@@ -37,12 +44,23 @@ class Backend implements ConfigurationChangeListener {
         private final Path path;
         private final EventType type;
         private final BasicFileAttributes attributes;
+        private final FileEventScheduler.Lane lane;
 
-        public FileEvent(final Configuration.CrawlLocation aCrawlLocation, final Path aPath, final BasicFileAttributes aFileAttributes, final EventType aEventType) {
+        public FileEvent(final Configuration.CrawlLocation aCrawlLocation, final Path aPath, final BasicFileAttributes aFileAttributes, final EventType aEventType,
+                final FileEventScheduler.Lane aLane) {
             crawlLocation = aCrawlLocation;
             path = aPath;
             type = aEventType;
             attributes = aFileAttributes;
+            lane = aLane;
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        FileEventScheduler.Lane getLane() {
+            return lane;
         }
     }
 
@@ -50,81 +68,141 @@ class Backend implements ConfigurationChangeListener {
 
         private final FileEvent fileEvent;
         private final Content content;
+        // Set if the indexed document is still up to date
+        private final LuceneIndexHandler.IndexedDocument unchangedDocument;
 
         public LuceneCommand(final FileEvent aFileEvent, final Content aContent) {
+            this(aFileEvent, aContent, null);
+        }
+
+        public LuceneCommand(final FileEvent aFileEvent, final Content aContent, final LuceneIndexHandler.IndexedDocument aUnchangedDocument) {
             fileEvent = aFileEvent;
             content = aContent;
+            unchangedDocument = aUnchangedDocument;
         }
     }
 
     private static final Logger LOGGER = Logger.getLogger(Backend.class);
 
+    // Rough upper bound of heap required by one in-flight extraction
+    private static final long MEMORY_PER_EXTRACTION = 64L * 1024 * 1024;
+
+    // Number of events each extraction lane fetches in advance
+    private static final int EXTRACTION_PREFETCH = 4;
+
+    // Time after a search in which no previews are rendered in the background
+    private static final long QUERY_QUIET_PERIOD_MILLIS = 2000;
+
     private LuceneIndexHandler luceneIndexHandler;
     private final ContentExtractor contentExtractor;
     private ProgressListener progressListener;
     private final Map<Configuration.CrawlLocation, DirectoryWatcher> locations;
+    private final Map<String, FileStateManifest> manifests;
     private final ExecutorPool executorPool;
     private final Notifier notifier;
     private final WatchServiceCache watchServiceCache;
+    private final FileEventDebouncer fileEventDebouncer;
     private final PreviewProcessor previewProcessor;
     private Configuration configuration;
     private DirectoryListener directoryListener;
-
-    public Backend(final Notifier aNotifier, final Configuration aConfiguration, final PreviewProcessor aPreviewProcessor) throws IOException {
+    private final AtomicInteger extractionQueueDepth;
+    private final InFlightFileEvents inFlightFileEvents;
+    private final FileEventScheduler fileEventScheduler;
+    private final PreviewPregenerator previewPregenerator;
+    private volatile long lastQueryTime;
+
+    public Backend(final Notifier aNotifier, final Configuration aConfiguration, final PreviewProcessor aPreviewProcessor,
+            final ThumbnailCache aThumbnailCache) throws IOException {
         notifier = aNotifier;
         previewProcessor = aPreviewProcessor;
         locations = new HashMap<>();
+        manifests = new ConcurrentHashMap<>();
         executorPool = new ExecutorPool();
         watchServiceCache = new WatchServiceCache();
-        contentExtractor = new ContentExtractor(aConfiguration);
+        fileEventDebouncer = new FileEventDebouncer(TimeUnit.SECONDS.toMillis(aConfiguration.getFileChangeQuietPeriod()),
+                TimeUnit.SECONDS.toMillis(aConfiguration.getFileChangeMaxDelay()));
+        // Extraction runs on a bounded number of lanes. Every path is always hashed to the same
+        // lane, so events for one file are processed in the order they were published.
+        final int theParallelism = computeExtractionParallelism(aConfiguration);
+        LOGGER.info("Using " + theParallelism + " content extraction threads");
+        contentExtractor = new ContentExtractor(aConfiguration, theParallelism);
+        extractionQueueDepth = new AtomicInteger();
+        inFlightFileEvents = new InFlightFileEvents();
+        fileEventScheduler = new FileEventScheduler();
+        // Previews are only rendered while nothing is extracted and nobody is searching
+        previewPregenerator = new PreviewPregenerator(aThumbnailCache, aPreviewProcessor,
+                () -> extractionQueueDepth.get() > 0 || fileEventScheduler.size() > 0 || System.currentTimeMillis() - lastQueryTime < QUERY_QUIET_PERIOD_MILLIS);
+
+        directoryListener = new DirectoryListener() {
 
-        // This is our simple flux
-        Flux<FileEvent> theFileEventFlux = Flux.push(sink -> {
-            directoryListener = new DirectoryListener() {
+            @Override
+            public void fileDeleted(final Configuration.CrawlLocation aLocation, final Path aFile) {
+                try {
+                    if (contentExtractor.supportsFile(aFile.toString())) {
+                        // There are no attributes to read for a deleted file
+                        publish(new FileEvent(aLocation, aFile, null, FileEvent.EventType.DELETED, FileEventScheduler.Lane.DELETION));
+                    }
+                } catch (final Exception e) {
+                    LOGGER.error("Error processing file " + aFile, e);
+                }
+            }
 
-                @Override
-                public void fileDeleted(final Configuration.CrawlLocation aLocation, final Path aFile) {
-                    synchronized (this) {
-                        try {
-                            if (contentExtractor.supportsFile(aFile.toString())) {
-                                final BasicFileAttributes theAttributes = Files.readAttributes(aFile, BasicFileAttributes.class);
-                                sink.next(new FileEvent(aLocation, aFile, theAttributes, FileEvent.EventType.DELETED));
-                            }
-                        } catch (final Exception e) {
-                            LOGGER.error("Error processing file " + aFile, e);
-                        }
+            @Override
+            public void fileCreatedOrModified(final Configuration.CrawlLocation aLocation, final Path aFile) {
+                try {
+                    if (contentExtractor.supportsFile(aFile.toString())) {
+                        final BasicFileAttributes theAttributes = Files.readAttributes(aFile, BasicFileAttributes.class);
+                        publish(new FileEvent(aLocation, aFile, theAttributes, FileEvent.EventType.UPDATED, FileEventScheduler.Lane.INTERACTIVE));
                     }
+                } catch (final Exception e) {
+                    LOGGER.error("Error processing file " + aFile, e);
                 }
+            }
 
-                @Override
-                public void fileCreatedOrModified(final Configuration.CrawlLocation aLocation, final Path aFile) {
-                    synchronized (this) {
-                        try {
-                            if (contentExtractor.supportsFile(aFile.toString())) {
-                                final BasicFileAttributes theAttributes = Files.readAttributes(aFile, BasicFileAttributes.class);
-                                sink.next(new FileEvent(aLocation, aFile, theAttributes, FileEvent.EventType.UPDATED));
-                            }
-                        } catch (final Exception e) {
-                            LOGGER.error("Error processing file " + aFile, e);
-                        }
+            @Override
+            public void fileFoundByCrawler(final Configuration.CrawlLocation aLocation, final Path aFile) {
+                try {
+                    if (contentExtractor.supportsFile(aFile.toString())) {
+                        // Marked right away, so the sweep after the crawl does not depend on the events still queued
+                        luceneIndexHandler.markAsSeen(aFile.toString());
+                        final BasicFileAttributes theAttributes = Files.readAttributes(aFile, BasicFileAttributes.class);
+                        publish(new FileEvent(aLocation, aFile, theAttributes, FileEvent.EventType.UPDATED, FileEventScheduler.Lane.CRAWL));
                     }
+                } catch (final Exception e) {
+                    LOGGER.error("Error processing file " + aFile, e);
                 }
+            }
 
-                @Override
-                public void fileFoundByCrawler(final Configuration.CrawlLocation aLocation, final Path aFile) {
-                    synchronized (this) {
-                        try {
-                            if (contentExtractor.supportsFile(aFile.toString())) {
-                                final BasicFileAttributes theAttributes = Files.readAttributes(aFile, BasicFileAttributes.class);
-                                sink.next(new FileEvent(aLocation, aFile, theAttributes, FileEvent.EventType.UPDATED));
-                            }
-                        } catch (final Exception e) {
-                            LOGGER.error("Error processing file " + aFile, e);
-                        }
+            @Override
+            public boolean supportsFile(final Path aFile) {
+                return contentExtractor.supportsFile(aFile.toString());
+            }
+
+            @Override
+            public void fileUnchangedByCrawler(final Configuration.CrawlLocation aLocation, final Path aFile) {
+                try {
+                    if (!luceneIndexHandler.markAsSeen(aFile.toString())) {
+                        // Known to the manifest, but missing in the index
+                        executorPool.execute(() -> fileFoundByCrawler(aLocation, aFile));
                     }
+                } catch (final Exception e) {
+                    LOGGER.error("Error processing file " + aFile, e);
                 }
-            };
-        });
+            }
+        };
+
+        // Events are pulled from the scheduler only when the extraction lanes have capacity, so the
+        // backlog stays in the scheduler where it can be prioritized
+        Flux<FileEvent> theFileEventFlux = Flux.<FileEvent>generate(aSink -> {
+            try {
+                aSink.next(fileEventScheduler.take());
+            } catch (final InterruptedException e) {
+                aSink.complete();
+            }
+        }).subscribeOn(Schedulers.newSingle("FileEventDispatcher", true));
+
+        // Events merged into a queued event for the same path are processed with the queued one
+        theFileEventFlux = theFileEventFlux.map(inFlightFileEvents::latestFor);
 
         // Filter update events for Files that were not changed
         theFileEventFlux = theFileEventFlux.filter(aFileEvent -> {
@@ -138,49 +216,111 @@ class Backend implements ConfigurationChangeListener {
             try {
                 final UpdateCheckResult theUpdateCheckResult = luceneIndexHandler
                         .checkIfModified(theFileName, aFileEvent.attributes.lastModifiedTime().toMillis());
-                return theUpdateCheckResult == UpdateCheckResult.UPDATED;
+                if (theUpdateCheckResult == UpdateCheckResult.UNMODIFIED) {
+                    luceneIndexHandler.markAsSeen(theFileName);
+                    // Already indexed, so remember it to skip the index check next time
+                    manifestFor(aFileEvent.crawlLocation).update(theFileName, aFileEvent.attributes.size(),
+                            aFileEvent.attributes.lastModifiedTime().toMillis());
+                    completed(aFileEvent);
+                    return false;
+                }
+                return true;
             } catch (final Exception e) {
                 throw Exceptions.propagate(e);
             }
         });
 
         // Ok, we now map the file events to lucene commands
-        final Flux<LuceneCommand> theLuceneFlux = theFileEventFlux.publishOn(Schedulers.newSingle("ContentExtractor")).map(
-                aFileEvent -> {
-                    if (aFileEvent.type == FileEvent.EventType.DELETED) {
-                        return new LuceneCommand(aFileEvent, null);
-                    }
-
-                    final Path thePath = aFileEvent.path;
-                    final Content theContent = contentExtractor.extractContentFrom(thePath, aFileEvent.attributes);
-                    return new LuceneCommand(aFileEvent, theContent);
-                });
+        final Scheduler theExtractionScheduler = Schedulers.newParallel("ContentExtractor", theParallelism);
+        final Flux<LuceneCommand> theLuceneFlux = theFileEventFlux
+                .doOnNext(aFileEvent -> extractionQueueDepth.incrementAndGet())
+                .groupBy(aFileEvent -> (aFileEvent.path.hashCode() & Integer.MAX_VALUE) % theParallelism, theParallelism * EXTRACTION_PREFETCH)
+                .flatMap(aLane -> aLane.publishOn(theExtractionScheduler, EXTRACTION_PREFETCH).map(inFlightFileEvents::latestFor).map(
+                        aFileEvent -> {
+                            try {
+                                if (aFileEvent.type == FileEvent.EventType.DELETED) {
+                                    return new LuceneCommand(aFileEvent, null);
+                                }
+
+                                final Path thePath = aFileEvent.path;
+                                if (contentExtractor.isQuarantined(thePath, aFileEvent.attributes)) {
+                                    return new LuceneCommand(aFileEvent, null);
+                                }
+                                // A touched file with the same bytes is not extracted again
+                                final LuceneIndexHandler.IndexedDocument theIndexedDocument = indexedDocumentFor(thePath);
+                                final String theFingerprint = contentExtractor.fingerprintOf(thePath);
+                                if (theIndexedDocument != null && theIndexedDocument.hasFingerprint(theFingerprint)) {
+                                    return new LuceneCommand(aFileEvent, null, theIndexedDocument);
+                                }
+
+                                final Content theContent = contentExtractor.extractContentFrom(thePath, aFileEvent.attributes);
+                                if (theContent != null) {
+                                    theContent.setFingerprint(theFingerprint);
+                                    if (theIndexedDocument != null && theIndexedDocument.isSameAs(theContent)) {
+                                        theContent.releaseMemory();
+                                        return new LuceneCommand(aFileEvent, null, theIndexedDocument);
+                                    }
+                                }
+                                return new LuceneCommand(aFileEvent, theContent);
+                            } finally {
+                                extractionQueueDepth.decrementAndGet();
+                            }
+                        }), theParallelism, 1);
 
         // Ok, finally we add everything to the index
-        theLuceneFlux.publishOn(Schedulers.newSingle("LuceneUpdater")).doOnNext(aCommand -> {
-            if (aCommand.fileEvent.type == FileEvent.EventType.DELETED) {
-                try {
-                    luceneIndexHandler.removeFromIndex(aCommand.fileEvent.path.toString());
-
-                    aNotifier.showInformation("Deleted " + aCommand.fileEvent.path.getFileName());
-
-                    progressListener.newFileFound(aCommand.fileEvent.path.toString());
-                } catch (Exception e) {
-                    aNotifier.showError("Error removing " + aCommand.fileEvent.path.getFileName(), e);
-                }
-            } else {
-                if (aCommand.content != null) {
+        // Only a few extracted documents wait for the index, as each of them holds its whole text
+        theLuceneFlux.publishOn(Schedulers.newSingle("LuceneUpdater"), theParallelism).doOnNext(aCommand -> {
+            try {
+                if (aCommand.fileEvent.type == FileEvent.EventType.DELETED) {
                     try {
-                        luceneIndexHandler.addToIndex(aCommand.fileEvent.crawlLocation.getId(), aCommand.content);
+                        luceneIndexHandler.removeFromIndex(aCommand.fileEvent.path.toString());
+                        manifestFor(aCommand.fileEvent.crawlLocation).remove(aCommand.fileEvent.path.toString());
+                        contentExtractor.fileDeleted(aCommand.fileEvent.path);
 
-                        notifier.showInformation("Reindexed " + aCommand.fileEvent.path.getFileName());
+                        aNotifier.showInformation("Deleted " + aCommand.fileEvent.path.getFileName());
 
                         progressListener.newFileFound(aCommand.fileEvent.path.toString());
+                    } catch (Exception e) {
+                        aNotifier.showError("Error removing " + aCommand.fileEvent.path.getFileName(), e);
+                    }
+                } else if (aCommand.unchangedDocument != null) {
+                    try {
+                        final long theLastModified = aCommand.fileEvent.attributes.lastModifiedTime().toMillis();
+                        final FileStateManifest theManifest = manifestFor(aCommand.fileEvent.crawlLocation);
+                        // The manifest only knows files whose update made it into the index
+                        luceneIndexHandler.markAsUnchanged(aCommand.fileEvent.path.toString(), theLastModified,
+                                () -> theManifest.update(aCommand.fileEvent.path.toString(), aCommand.fileEvent.attributes.size(), theLastModified));
 
+                        LOGGER.info("Content of " + aCommand.fileEvent.path + " is unchanged");
                     } catch (Exception e) {
-                        aNotifier.showError("Error re-inxeding " + aCommand.fileEvent.path.getFileName(), e);
+                        aNotifier.showError("Error updating " + aCommand.fileEvent.path.getFileName(), e);
+                    }
+                } else {
+                    if (aCommand.content != null) {
+                        try {
+                            final FileStateManifest theManifest = manifestFor(aCommand.fileEvent.crawlLocation);
+                            final Content theContent = aCommand.content;
+                            luceneIndexHandler.addToIndex(aCommand.fileEvent.crawlLocation.getId(), theContent,
+                                    () -> theManifest.update(theContent.getFileName(), theContent.getFileSize(), theContent.getLastModified()));
+
+                            if (configuration.isPregeneratePreviews()) {
+                                previewPregenerator.schedule(aCommand.fileEvent.path.toFile());
+                            }
+
+                            notifier.showInformation("Reindexed " + aCommand.fileEvent.path.getFileName());
+
+                            progressListener.newFileFound(aCommand.fileEvent.path.toString());
+
+                        } catch (Exception e) {
+                            aNotifier.showError("Error re-inxeding " + aCommand.fileEvent.path.getFileName(), e);
+                        }
                     }
                 }
+            } finally {
+                if (aCommand.content != null) {
+                    aCommand.content.releaseMemory();
+                }
+                completed(aCommand.fileEvent);
             }
         }).subscribe(new BaseSubscriber<>() {
             @Override
@@ -190,7 +330,10 @@ class Backend implements ConfigurationChangeListener {
 
             @Override
             protected void hookOnNext(final LuceneCommand aCommand) {
-                LOGGER.info("Processed command for " + aCommand.fileEvent.path);
+                LOGGER.info("Processed command for " + aCommand.fileEvent.path + ", " + extractionQueueDepth.get() + " files waiting for extraction, "
+                        + fileEventScheduler.depthOf(FileEventScheduler.Lane.INTERACTIVE) + " changed, "
+                        + fileEventScheduler.depthOf(FileEventScheduler.Lane.DELETION) + " deleted and "
+                        + fileEventScheduler.depthOf(FileEventScheduler.Lane.CRAWL) + " crawled files queued");
                 request(1);
             }
 
@@ -209,6 +352,9 @@ class Backend implements ConfigurationChangeListener {
         setIndexLocation(aConfiguration);
 
         configuration = aConfiguration;
+        fileEventDebouncer.setDelays(TimeUnit.SECONDS.toMillis(aConfiguration.getFileChangeQuietPeriod()),
+                TimeUnit.SECONDS.toMillis(aConfiguration.getFileChangeMaxDelay()));
+        contentExtractor.setExtractionTimeout(TimeUnit.SECONDS.toMillis(aConfiguration.getExtractionTimeout()));
         locations.values().forEach(DirectoryWatcher::stopWatching);
         locations.clear();
 
@@ -224,19 +370,103 @@ class Backend implements ConfigurationChangeListener {
         });
     }
 
+    /**
+     * Publishes the event, unless there is already an event for the path in the pipeline. In that case the
+     * event is merged into the pending one.
+     */
+    private void publish(final FileEvent aEvent) {
+        if (inFlightFileEvents.offer(aEvent)) {
+            fileEventScheduler.offer(aEvent);
+        } else {
+            // A change by the user must not wait in the lane of a crawled event
+            fileEventScheduler.promote(aEvent);
+        }
+    }
+
+    private void completed(final FileEvent aEvent) {
+        final FileEvent theNewerEvent = inFlightFileEvents.complete(aEvent);
+        if (theNewerEvent != null) {
+            // The file changed again while it was processed
+            fileEventScheduler.offer(theNewerEvent);
+        }
+    }
+
+    static int computeExtractionParallelism(final Configuration aConfiguration) {
+        if (aConfiguration.getNumberOfExtractionThreads() > 0) {
+            return aConfiguration.getNumberOfExtractionThreads();
+        }
+        final Runtime theRuntime = Runtime.getRuntime();
+        final long theMemoryBound = theRuntime.maxMemory() / MEMORY_PER_EXTRACTION;
+        return (int) Math.max(1, Math.min(theRuntime.availableProcessors(), theMemoryBound));
+    }
+
+    private LuceneIndexHandler.IndexedDocument indexedDocumentFor(final Path aFile) {
+        try {
+            return luceneIndexHandler.indexedDocumentFor(aFile.toString());
+        } catch (final IOException e) {
+            // The file is indexed again
+            LOGGER.warn("Cannot look up " + aFile + " in the index", e);
+            return null;
+        }
+    }
+
+    public int getExtractionQueueDepth() {
+        return extractionQueueDepth.get();
+    }
+
+    public int getQueueDepth(final FileEventScheduler.Lane aLane) {
+        return fileEventScheduler.depthOf(aLane);
+    }
+
     public void setProgressListener(final ProgressListener progressListener) {
         this.progressListener = progressListener;
     }
 
     private void add(final Configuration.CrawlLocation aLocation) throws IOException {
-        locations.put(aLocation, new DirectoryWatcher(watchServiceCache, aLocation, DirectoryWatcher.DEFAULT_WAIT_FOR_ACTION, directoryListener, executorPool).startWatching());
+        locations.put(aLocation, new DirectoryWatcher(watchServiceCache, aLocation, fileEventDebouncer, directoryListener, executorPool, manifestFor(aLocation)).startWatching());
+    }
+
+    private FileStateManifest manifestFor(final Configuration.CrawlLocation aLocation) {
+        return manifests.computeIfAbsent(aLocation.getId(),
+                aId -> FileStateManifest.open(new File(configuration.getConfigDirectory(), "manifest"), aId, luceneIndexHandler.getIndexId()));
+    }
+
+    private void saveManifests() {
+        manifests.values().forEach(aManifest -> {
+            try {
+                aManifest.save();
+            } catch (final IOException e) {
+                LOGGER.error("Error saving file state manifest", e);
+            }
+        });
     }
 
     private void setIndexLocation(final Configuration aConfiguration) throws IOException {
         if (luceneIndexHandler != null) {
-            shutdown();
+            closeIndex();
+            // Reopened for the new index, which may not know their files
+            manifests.clear();
+        }
+        luceneIndexHandler = new LuceneIndexHandler(aConfiguration, previewProcessor, this::fileOfSearchHitMissing);
+    }
+
+    /**
+     * Removes the document like a deleted file, so the manifest of its location is updated as well.
+     */
+    private void fileOfSearchHitMissing(final String aFileName) {
+        final Path theFile = Paths.get(aFileName);
+        for (final Configuration.CrawlLocation theLocation : configuration.getCrawlLocations()) {
+            if (theFile.startsWith(theLocation.getDirectory().toPath())) {
+                directoryListener.fileDeleted(theLocation, theFile);
+                return;
+            }
+        }
+        // The location was removed, so there is no manifest to update
+        try {
+            luceneIndexHandler.removeFromIndex(aFileName);
+        } catch (final IOException e) {
+            LOGGER.error("Error removing " + aFileName + " from index", e);
         }
-        luceneIndexHandler = new LuceneIndexHandler(aConfiguration, previewProcessor);
     }
 
     public void crawlLocations() throws IOException {
@@ -246,24 +476,70 @@ class Backend implements ConfigurationChangeListener {
         final Thread theRunner = new Thread(() -> {
 
             LOGGER.info("Startint to crawl");;
-            locations.values().forEach(theWatcher -> {
+            // The paths of every crawled location that could not be read
+            final Map<Configuration.CrawlLocation, Set<Path>> theCrawledLocations = new HashMap<>();
+            locations.forEach((theLocation, theWatcher) -> {
                 try {
-                    theWatcher.crawl();
+                    theCrawledLocations.put(theLocation, theWatcher.crawl());
                 } catch (final Exception e) {
                     LOGGER.error("Error while crawling", e);
                 }
             });
 
+            // Wait until all files found by the crawler were checked
+            executorPool.awaitQuiescence();
+            if (configuration.isRemoveUnseenDocumentsAfterCrawl()) {
+                // Locations that failed to crawl are not swept, as their documents were not marked completely.
+                // Found files were marked when the crawler found them, so events still queued do not matter.
+                // Documents below unreadable paths are kept, as it is unknown if their files still exist
+                theCrawledLocations.forEach(this::removeUnseenDocuments);
+            }
+            luceneIndexHandler.crawlingFinished();
+            saveManifests();
+            contentExtractor.saveQuarantine();
+
+            final int thePolledDirectories = watchServiceCache.numberOfPolledDirectories();
+            if (thePolledDirectories > 0) {
+                notifier.showInformation("Watching " + watchServiceCache.numberOfWatchedDirectories() + " directories for changes, "
+                        + thePolledDirectories + " more are checked every minute");
+            }
+
             progressListener.crawlingFinished();
         });
         theRunner.start();
     }
 
-    public void shutdown() {
+    private void removeUnseenDocuments(final Configuration.CrawlLocation aLocation, final Set<Path> aFailedPaths) {
+        try {
+            final FileStateManifest theManifest = manifestFor(aLocation);
+            final List<String> theRemoved = luceneIndexHandler.removeUnseenDocuments(aLocation.getId(), aFailedPaths);
+            theRemoved.forEach(theManifest::remove);
+            if (!theRemoved.isEmpty()) {
+                notifier.showInformation("Removed " + theRemoved.size() + " documents no longer found in " + aLocation.getDirectory());
+            }
+        } catch (final Exception e) {
+            notifier.showError("Error removing documents no longer found in " + aLocation.getDirectory(), e);
+        }
+    }
+
+    private void closeIndex() {
+        // Writes the pending documents first, which updates the manifests
         luceneIndexHandler.shutdown();
+        saveManifests();
+    }
+
+    /**
+     * Called on application exit only, the index is also closed when the configuration changed.
+     */
+    public void shutdown() {
+        previewPregenerator.shutdown();
+        // Lives as long as the extraction lanes, which are not replaced on configuration changes
+        contentExtractor.shutdown();
+        closeIndex();
     }
 
     public QueryResult performQuery(final String aQueryString, final String aBacklink, final String aBasePath, final Map<String, String> aDrilldownDimensions) throws IOException {
+        lastQueryTime = System.currentTimeMillis();
         return luceneIndexHandler.performQuery(aQueryString, aBacklink, aBasePath, configuration, aDrilldownDimensions);
     }
 
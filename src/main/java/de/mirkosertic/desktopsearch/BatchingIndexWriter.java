@@ -0,0 +1,193 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends adds and deletes to Solr in batches. If a batch fails, its documents are sent one by one, so
+ * only the documents that fail are skipped. Callers learn about an indexed document through the
+ * callback given with it, after it was sent.
+ */
+class BatchingIndexWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchingIndexWriter.class);
+
+    public static final int DEFAULT_MAX_DOCUMENTS = 100;
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+    private final SolrClient solrClient;
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final long maxDelayMillis;
+    private static class PendingAdd {
+
+        private final SolrInputDocument document;
+        private final Runnable onIndexed;
+
+        private PendingAdd(final SolrInputDocument aDocument, final Runnable aOnIndexed) {
+            document = aDocument;
+            onIndexed = aOnIndexed;
+        }
+
+        private void indexed() {
+            try {
+                onIndexed.run();
+            } catch (final Exception e) {
+                LOGGER.error("Error recording indexed document " + document.getFieldValue(IndexFields.UNIQUEID), e);
+            }
+        }
+    }
+
+    private final List<PendingAdd> pendingAdds;
+    private final List<String> pendingDeletes;
+    private final ScheduledExecutorService flushTimer;
+    private long pendingBytes;
+    private long oldestPendingTime;
+
+    public BatchingIndexWriter(final SolrClient aSolrClient) {
+        this(aSolrClient, DEFAULT_MAX_DOCUMENTS, DEFAULT_MAX_BYTES, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    public BatchingIndexWriter(final SolrClient aSolrClient, final int aMaxDocuments, final long aMaxBytes, final long aMaxDelayMillis) {
+        solrClient = aSolrClient;
+        maxDocuments = aMaxDocuments;
+        maxBytes = aMaxBytes;
+        maxDelayMillis = aMaxDelayMillis;
+        pendingAdds = new ArrayList<>();
+        pendingDeletes = new ArrayList<>();
+        flushTimer = Executors.newSingleThreadScheduledExecutor(aRunnable -> {
+            final Thread theThread = new Thread(aRunnable, "IndexBatchFlusher");
+            theThread.setDaemon(true);
+            return theThread;
+        });
+        flushTimer.scheduleWithFixedDelay(() -> {
+            try {
+                flushIfDue();
+            } catch (final Exception e) {
+                LOGGER.error("Error flushing pending index updates", e);
+            }
+        }, aMaxDelayMillis, aMaxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void add(final SolrInputDocument aDocument, final Runnable aOnIndexed) {
+        // Adds and deletes are sent as separate requests, so we have to
+        // flush pending deletes first to keep the order of operations
+        if (!pendingDeletes.isEmpty()) {
+            flush();
+        }
+        markPending();
+        pendingAdds.add(new PendingAdd(aDocument, aOnIndexed));
+        pendingBytes += estimateSize(aDocument);
+        if (pendingAdds.size() >= maxDocuments || pendingBytes >= maxBytes) {
+            flush();
+        }
+    }
+
+    public synchronized void deleteById(final String aId) {
+        if (!pendingAdds.isEmpty()) {
+            flush();
+        }
+        markPending();
+        pendingDeletes.add(aId);
+        if (pendingDeletes.size() >= maxDocuments) {
+            flush();
+        }
+    }
+
+    private void markPending() {
+        if (pendingAdds.isEmpty() && pendingDeletes.isEmpty()) {
+            oldestPendingTime = System.currentTimeMillis();
+        }
+    }
+
+    private synchronized void flushIfDue() {
+        if ((!pendingAdds.isEmpty() || !pendingDeletes.isEmpty())
+                && System.currentTimeMillis() - oldestPendingTime >= maxDelayMillis) {
+            flush();
+        }
+    }
+
+    public synchronized void flush() {
+        if (!pendingAdds.isEmpty()) {
+            final List<PendingAdd> theAdds = new ArrayList<>(pendingAdds);
+            pendingAdds.clear();
+            pendingBytes = 0;
+            LOGGER.debug("Sending " + theAdds.size() + " documents to the index");
+            try {
+                final List<SolrInputDocument> theDocuments = new ArrayList<>(theAdds.size());
+                theAdds.forEach(theAdd -> theDocuments.add(theAdd.document));
+                solrClient.add(theDocuments);
+                theAdds.forEach(PendingAdd::indexed);
+            } catch (final Exception e) {
+                LOGGER.warn("Sending " + theAdds.size() + " documents to the index failed, sending them one by one", e);
+                // Adds replace the document, so sending those again that made it into the index is harmless
+                for (final PendingAdd theAdd : theAdds) {
+                    try {
+                        solrClient.add(theAdd.document);
+                        theAdd.indexed();
+                    } catch (final Exception e2) {
+                        LOGGER.error("Skipping document " + theAdd.document.getFieldValue(IndexFields.UNIQUEID), e2);
+                    }
+                }
+            }
+        }
+        if (!pendingDeletes.isEmpty()) {
+            final List<String> theDeletes = new ArrayList<>(pendingDeletes);
+            pendingDeletes.clear();
+            LOGGER.debug("Deleting " + theDeletes.size() + " documents from the index");
+            try {
+                solrClient.deleteById(theDeletes);
+            } catch (final Exception e) {
+                LOGGER.warn("Deleting " + theDeletes.size() + " documents from the index failed, deleting them one by one", e);
+                for (final String theId : theDeletes) {
+                    try {
+                        solrClient.deleteById(theId);
+                    } catch (final Exception e2) {
+                        LOGGER.error("Cannot delete document " + theId, e2);
+                    }
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        flushTimer.shutdownNow();
+        flush();
+    }
+
+    private static long estimateSize(final SolrInputDocument aDocument) {
+        long theResult = 0;
+        for (final SolrInputField theField : aDocument) {
+            theResult += theField.getName().length();
+            for (final Object theValue : theField.getValues()) {
+                if (theValue instanceof CharSequence) {
+                    theResult += ((CharSequence) theValue).length() * 2L;
+                } else {
+                    theResult += 16;
+                }
+            }
+        }
+        return theResult;
+    }
+}
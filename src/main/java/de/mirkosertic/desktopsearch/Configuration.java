@@ -56,8 +56,16 @@ public class Configuration {
     private int suggestionWindowBefore;
     private int suggestionWindowAfter;
     private boolean suggestionInOrder;
+    private int maxSuggestionPhrasesPerDocument;
     private boolean showSimilarDocuments;
     private boolean crawlOnStartup;
+    private int numberOfExtractionThreads;
+    private boolean removeUnseenDocumentsAfterCrawl;
+    private boolean pregeneratePreviews;
+    private int fileChangeQuietPeriod;
+    private int fileChangeMaxDelay;
+    private int extractionTimeout;
+    private boolean extractInSeparateProcesses;
     private List<CrawlLocation> crawlLocations;
     private Set<SupportedLanguage> enabledLanguages;
     private Set<SupportedDocumentType> enabledDocumentTypes;
@@ -72,8 +80,20 @@ public class Configuration {
         suggestionWindowBefore = 0;
         suggestionWindowAfter = 3;
         suggestionInOrder = true;
+        // Distinct phrases taken from a document for suggestions, 0 means no limit
+        maxSuggestionPhrasesPerDocument = 0;
         showSimilarDocuments = false;
         crawlOnStartup = true;
+        // Zero means the number of threads is computed from the available cores and memory
+        numberOfExtractionThreads = 0;
+        removeUnseenDocumentsAfterCrawl = false;
+        pregeneratePreviews = false;
+        // In seconds, changed files are indexed after they were quiet for some time
+        fileChangeQuietPeriod = 1;
+        fileChangeMaxDelay = 10;
+        // In seconds, 0 means no limit
+        extractionTimeout = 120;
+        extractInSeparateProcesses = false;
         crawlLocations = new ArrayList<>();
         enabledLanguages = new HashSet<>();
         enabledDocumentTypes = new HashSet<>();
@@ -107,7 +127,15 @@ public class Configuration {
         suggestionWindowBefore = aConfiguration.suggestionWindowBefore;
         suggestionWindowAfter = aConfiguration.suggestionWindowAfter;
         suggestionInOrder = aConfiguration.suggestionInOrder;
+        maxSuggestionPhrasesPerDocument = aConfiguration.maxSuggestionPhrasesPerDocument;
         showSimilarDocuments = aConfiguration.showSimilarDocuments;
+        numberOfExtractionThreads = aConfiguration.numberOfExtractionThreads;
+        removeUnseenDocumentsAfterCrawl = aConfiguration.removeUnseenDocumentsAfterCrawl;
+        pregeneratePreviews = aConfiguration.pregeneratePreviews;
+        fileChangeQuietPeriod = aConfiguration.fileChangeQuietPeriod;
+        fileChangeMaxDelay = aConfiguration.fileChangeMaxDelay;
+        extractionTimeout = aConfiguration.extractionTimeout;
+        extractInSeparateProcesses = aConfiguration.extractInSeparateProcesses;
         crawlLocations = new ArrayList<>(aConfiguration.crawlLocations);
         enabledLanguages = new HashSet<>(aConfiguration.enabledLanguages);
         enabledDocumentTypes = new HashSet<>(aConfiguration.enabledDocumentTypes);
@@ -168,10 +196,42 @@ public class Configuration {
         return suggestionInOrder;
     }
 
+    public int getMaxSuggestionPhrasesPerDocument() {
+        return maxSuggestionPhrasesPerDocument;
+    }
+
     public boolean isCrawlOnStartup() {
         return crawlOnStartup;
     }
 
+    public int getNumberOfExtractionThreads() {
+        return numberOfExtractionThreads;
+    }
+
+    public boolean isRemoveUnseenDocumentsAfterCrawl() {
+        return removeUnseenDocumentsAfterCrawl;
+    }
+
+    public boolean isPregeneratePreviews() {
+        return pregeneratePreviews;
+    }
+
+    public int getFileChangeQuietPeriod() {
+        return fileChangeQuietPeriod;
+    }
+
+    public int getFileChangeMaxDelay() {
+        return fileChangeMaxDelay;
+    }
+
+    public int getExtractionTimeout() {
+        return extractionTimeout;
+    }
+
+    public boolean isExtractInSeparateProcesses() {
+        return extractInSeparateProcesses;
+    }
+
     public Configuration addLocation(final CrawlLocation aCrawlLocation) {
         final Configuration theConfiguration = new Configuration(this);
         theConfiguration.crawlLocations.add(aCrawlLocation);
@@ -250,9 +310,57 @@ public class Configuration {
         return theConfiguration;
     }
 
+    public Configuration updateMaxSuggestionPhrasesPerDocument(final int aValue) {
+        final Configuration theConfiguration = new Configuration(this);
+        theConfiguration.maxSuggestionPhrasesPerDocument = aValue;
+        return theConfiguration;
+    }
+
     public Configuration updateCrawlOnStartup(final boolean aValue) {
         final Configuration theConfiguration = new Configuration(this);
         theConfiguration.crawlOnStartup = aValue;
         return theConfiguration;
     }
+
+    public Configuration updateNumberOfExtractionThreads(final int aValue) {
+        final Configuration theConfiguration = new Configuration(this);
+        theConfiguration.numberOfExtractionThreads = aValue;
+        return theConfiguration;
+    }
+
+    public Configuration updateRemoveUnseenDocumentsAfterCrawl(final boolean aValue) {
+        final Configuration theConfiguration = new Configuration(this);
+        theConfiguration.removeUnseenDocumentsAfterCrawl = aValue;
+        return theConfiguration;
+    }
+
+    public Configuration updatePregeneratePreviews(final boolean aValue) {
+        final Configuration theConfiguration = new Configuration(this);
+        theConfiguration.pregeneratePreviews = aValue;
+        return theConfiguration;
+    }
+
+    public Configuration updateFileChangeQuietPeriod(final int aValue) {
+        final Configuration theConfiguration = new Configuration(this);
+        theConfiguration.fileChangeQuietPeriod = aValue;
+        return theConfiguration;
+    }
+
+    public Configuration updateFileChangeMaxDelay(final int aValue) {
+        final Configuration theConfiguration = new Configuration(this);
+        theConfiguration.fileChangeMaxDelay = aValue;
+        return theConfiguration;
+    }
+
+    public Configuration updateExtractionTimeout(final int aValue) {
+        final Configuration theConfiguration = new Configuration(this);
+        theConfiguration.extractionTimeout = aValue;
+        return theConfiguration;
+    }
+
+    public Configuration updateExtractInSeparateProcesses(final boolean aValue) {
+        final Configuration theConfiguration = new Configuration(this);
+        theConfiguration.extractInSeparateProcesses = aValue;
+        return theConfiguration;
+    }
 }
\ No newline at end of file
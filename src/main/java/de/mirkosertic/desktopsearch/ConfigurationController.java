@@ -28,6 +28,7 @@ public class ConfigurationController {
 
     private static final String CATEGORY_COMMON = "Common";
     private static final String CATEGORY_SUGGEST = "Suggestion";
+    private static final String CATEGORY_INDEXING = "Indexing";
     private static final String CATEGORY_LANGUAGE = "Language analyzers";
     private static final String CATEGORY_FILEFORMATS = "File formats";
 
@@ -88,6 +89,90 @@ public class ConfigurationController {
                 currentConfiguration = currentConfiguration.updateIncludeSimilarDocuments((Boolean) o);
             }
         });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Number of content extraction threads (0 = automatic, requires restart)", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getNumberOfExtractionThreads();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateNumberOfExtractionThreads((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(boolean.class, CATEGORY_INDEXING, "Remove documents not found by a full crawl", BooleanPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.isRemoveUnseenDocumentsAfterCrawl();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateRemoveUnseenDocumentsAfterCrawl((Boolean) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(boolean.class, CATEGORY_INDEXING, "Render previews in the background", BooleanPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.isPregeneratePreviews();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updatePregeneratePreviews((Boolean) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Seconds a changed file must be unchanged before indexing", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getFileChangeQuietPeriod();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateFileChangeQuietPeriod((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Max seconds until a changed file is indexed", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getFileChangeMaxDelay();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateFileChangeMaxDelay((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Max seconds to extract the content of a file (0 = no limit)", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getExtractionTimeout();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateExtractionTimeout((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(boolean.class, CATEGORY_INDEXING, "Extract content in separate processes (requires restart)", BooleanPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.isExtractInSeparateProcesses();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateExtractInSeparateProcesses((Boolean) o);
+            }
+        });
         propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_SUGGEST, "Max number of suggestions", SpinnerPropertyEditor.class) {
 
             @Override
@@ -148,6 +233,18 @@ public class ConfigurationController {
                 currentConfiguration = currentConfiguration.updateSuggestionsInOrder((Boolean) o);
             }
         });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_SUGGEST, "Max thousand phrases per document (0 = no limit)", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getMaxSuggestionPhrasesPerDocument() / 1000;
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateMaxSuggestionPhrasesPerDocument((Integer) o * 1000);
+            }
+        });
 
         for (final SupportedLanguage theLanguage : SupportedLanguage.values()) {
 
@@ -12,7 +12,11 @@
  */
 package de.mirkosertic.desktopsearch;
 
+import org.apache.commons.codec.digest.DigestUtils;
+
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -34,15 +38,25 @@ public class Content {
     private final List<KeyValuePair> metadata;
     private final String fileContent;
     private final SupportedLanguage language;
+    private String contentMD5;
+    private String metadataMD5;
+    private String fingerprint;
+    private Runnable memoryRelease;
 
     public Content(
             final String aFileName, final String aFileContent, final long aFileSize, final long aLastModified, final SupportedLanguage aLanguage) {
+        this(aFileName, aFileContent, null, aFileSize, aLastModified, aLanguage);
+    }
+
+    public Content(final String aFileName, final String aFileContent, final String aContentMD5, final long aFileSize, final long aLastModified,
+            final SupportedLanguage aLanguage) {
         fileName = aFileName;
         fileSize = aFileSize;
         lastModified = aLastModified;
         metadata = new ArrayList<>();
         fileContent = aFileContent;
         language = aLanguage;
+        contentMD5 = aContentMD5;
     }
 
     public String getFileName() {
@@ -53,6 +67,53 @@ public class Content {
         return fileContent;
     }
 
+    public synchronized String getContentMD5() {
+        if (contentMD5 == null) {
+            contentMD5 = DigestUtils.md5Hex(fileContent);
+        }
+        return contentMD5;
+    }
+
+    public synchronized String getMetadataMD5() {
+        if (metadataMD5 == null) {
+            final StringBuilder theMetadata = new StringBuilder();
+            // Sorted, as parsers do not report metadata in a stable order
+            final List<KeyValuePair> theSorted = new ArrayList<>(metadata);
+            theSorted.sort(Comparator.comparing(aPair -> aPair.key));
+            for (final KeyValuePair thePair : theSorted) {
+                final Object theValue = thePair.value instanceof Date ? ((Date) thePair.value).getTime() : thePair.value;
+                theMetadata.append(thePair.key).append('=').append(theValue).append('\n');
+            }
+            metadataMD5 = DigestUtils.md5Hex(theMetadata.toString());
+        }
+        return metadataMD5;
+    }
+
+    /**
+     * The fingerprint of the file itself, or null if it is unknown.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(final String aFingerprint) {
+        fingerprint = aFingerprint;
+    }
+
+    /**
+     * Gives the memory reserved for the text back once the content was indexed or dropped.
+     */
+    public synchronized void setMemoryRelease(final Runnable aMemoryRelease) {
+        memoryRelease = aMemoryRelease;
+    }
+
+    public synchronized void releaseMemory() {
+        if (memoryRelease != null) {
+            memoryRelease.run();
+            memoryRelease = null;
+        }
+    }
+
     public long getFileSize() {
         return fileSize;
     }
@@ -69,7 +130,8 @@ public class Content {
         return metadata.stream();
     }
 
-    public void addMetaData(final String aKey, final Object aValue) {
+    public synchronized void addMetaData(final String aKey, final Object aValue) {
         metadata.add(new KeyValuePair(aKey, aValue));
+        metadataMD5 = null;
     }
 }
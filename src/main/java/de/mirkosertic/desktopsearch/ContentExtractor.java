@@ -12,26 +12,46 @@
  */
 package de.mirkosertic.desktopsearch;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.log4j.Logger;
 import org.apache.tika.Tika;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.fork.ForkParser;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.langdetect.OptimaizeLangDetector;
 import org.apache.tika.language.detect.LanguageDetector;
 import org.apache.tika.language.detect.LanguageResult;
 import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
 import org.apache.tika.utils.DateUtils;
+import org.xml.sax.SAXException;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,12 +59,30 @@ class ContentExtractor {
 
     private static final Logger LOGGER = Logger.getLogger(ContentExtractor.class);
 
+    private static final int MAX_CHARACTERS_PER_DOCUMENT = 1024 * 1024 * 5;
+
+    private static final int FINGERPRINT_BUFFER_BYTES = 64 * 1024;
+
+    // Extraction processes are replaced from time to time, so leaks in parsers cannot pile up
+    private static final int DOCUMENTS_PER_EXTRACTION_PROCESS = 100;
+    private static final String EXTRACTION_PROCESS_MAX_HEAP = "-Xmx512m";
+
+    // Beyond this number of parsers still running after their timeout, documents are parsed without timeout
+    private static final int MAX_ABANDONED_PARSERS = 8;
+
     private final Tika tika;
+    private final ForkParser forkParser;
+    private final ExtractionMemoryBudget memoryBudget;
+    private final ExtractionQuarantine quarantine;
+    private final ExecutorService parserPool;
+    private final AtomicInteger abandonedParsers;
+    private volatile long extractionTimeoutMillis;
+    private volatile boolean shutdown;
     private final Pattern metaDataDatePattern;
     private final Configuration configuration;
-    private final LanguageDetector languageDetector;
+    private final ThreadLocal<LanguageDetector> languageDetector;
 
-    public ContentExtractor(final Configuration aConfiguration) {
+    public ContentExtractor(final Configuration aConfiguration, final int aParallelism) {
 
         // TODO: auch korrekt dieses Muster verarbeitrn :  Mon Feb 18 15:55:10 CET 2013
 
@@ -52,15 +90,41 @@ class ContentExtractor {
 
         configuration = aConfiguration;
         tika = new Tika();
-        tika.setMaxStringLength(1024 * 1024 * 5);
-
-        final OptimaizeLangDetector theDetector = new OptimaizeLangDetector();
-        try {
-            theDetector.loadModels();
-            languageDetector = theDetector;
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
+        if (aConfiguration.isExtractInSeparateProcesses()) {
+            // The parsers are loaded from our class path by the forked processes, which exit
+            // on OutOfMemoryError and are started again for the next document
+            forkParser = new ForkParser(ContentExtractor.class.getClassLoader(), tika.getParser());
+            forkParser.setJavaCommand(Arrays.asList(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    EXTRACTION_PROCESS_MAX_HEAP, "-XX:+ExitOnOutOfMemoryError"));
+            forkParser.setPoolSize(aParallelism);
+            forkParser.setMaxFilesProcessedPerServer(DOCUMENTS_PER_EXTRACTION_PROCESS);
+            LOGGER.info("Extracting content in up to " + aParallelism + " separate processes");
+        } else {
+            forkParser = null;
         }
+        // Shared by all extraction threads, so the text held in memory is bounded no matter how many documents are extracted
+        memoryBudget = ExtractionMemoryBudget.forHeap(MAX_CHARACTERS_PER_DOCUMENT);
+        quarantine = ExtractionQuarantine.open(aConfiguration.getConfigDirectory());
+        setExtractionTimeout(TimeUnit.SECONDS.toMillis(aConfiguration.getExtractionTimeout()));
+        // A parser that does not stop after its timeout is left behind on its own thread
+        abandonedParsers = new AtomicInteger();
+        parserPool = Executors.newCachedThreadPool(aRunnable -> {
+            final Thread theThread = new Thread(aRunnable, "TikaParser");
+            theThread.setDaemon(true);
+            return theThread;
+        });
+
+        // The language detector keeps state between calls, so
+        // every extraction thread gets its own instance
+        languageDetector = ThreadLocal.withInitial(() -> {
+            final OptimaizeLangDetector theDetector = new OptimaizeLangDetector();
+            try {
+                theDetector.loadModels();
+                return theDetector;
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
     }
 
     private String harmonizeMetaDataName(String aName) {
@@ -77,25 +141,51 @@ class ContentExtractor {
         return aName;
     }
 
+    public void setExtractionTimeout(final long aTimeoutMillis) {
+        extractionTimeoutMillis = aTimeoutMillis;
+        if (forkParser != null && aTimeoutMillis > 0) {
+            // Abandoned parses in a separate process can really be stopped, the process is killed
+            forkParser.setServerParseTimeoutMillis(aTimeoutMillis);
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        if (forkParser != null) {
+            forkParser.close();
+        }
+        quarantine.save();
+    }
+
+    public void saveQuarantine() {
+        quarantine.save();
+    }
+
+    public void fileDeleted(final Path aFile) {
+        quarantine.removed(aFile.toString());
+    }
+
     public Content extractContentFrom(final Path aFile, final BasicFileAttributes aBasicFileAttributes) {
+        final String theFileName = aFile.toString();
+        if (shutdown) {
+            LOGGER.info("Not extracting " + aFile + ", the application is shutting down");
+            return null;
+        }
+        final long theLastModified = aBasicFileAttributes.lastModifiedTime().toMillis();
+        if (isQuarantined(aFile, aBasicFileAttributes)) {
+            return null;
+        }
+        // Closed when the content is released after indexing, or right away if there is no content
+        final ExtractedTextBuffer theBuffer = new ExtractedTextBuffer(memoryBudget);
+        boolean theBufferHandedOver = false;
         try {
             final Metadata theMetaData = new Metadata();
 
-            final String theStringData;
-            // Files under 10 Meg are read into memory as a whole
-            if (aBasicFileAttributes.size() < 1024 * 1024 * 4) {
-                final byte[] theData = Files.readAllBytes(aFile);
-                theStringData = tika.parseToString(new ByteArrayInputStream(theData), theMetaData);
-            } else {
-                try (final InputStream theStream = Files.newInputStream(aFile, StandardOpenOption.READ)) {
-                    theStringData = tika.parseToString(new BufferedInputStream(theStream), theMetaData)
-                            .replace('\n', ' ')
-                            .replace('\r', ' ')
-                            .replace('\t',' ');
-                }
-            }
+            parse(aFile, theMetaData, theBuffer);
+            final String theContentMD5 = theBuffer.contentMD5();
+            final String theStringData = theBuffer.toString();
 
-            final LanguageResult theLanguageResult = languageDetector.detect(theStringData);
+            final LanguageResult theLanguageResult = languageDetector.get().detect(theStringData);
 
             final FileTime theFileTime = aBasicFileAttributes.lastModifiedTime();
             SupportedLanguage theLanguage = SupportedLanguage.getDefault();
@@ -107,7 +197,7 @@ class ContentExtractor {
             } catch (final Exception e) {
                 LOGGER.info("Language " + theLanguageResult.getLanguage() + " was detected, but is not supported");
             }
-            final Content theContent = new Content(aFile.toString(), theStringData, aBasicFileAttributes.size(), theFileTime.toMillis(), theLanguage);
+            final Content theContent = new Content(aFile.toString(), theStringData, theContentMD5, aBasicFileAttributes.size(), theFileTime.toMillis(), theLanguage);
             for (final String theName : theMetaData.names()) {
 
                 final String theMetaDataValue = theMetaData.get(theName);
@@ -137,21 +227,135 @@ class ContentExtractor {
                 }
             }
 
-            final String theFileName = aFile.toString();
             final int p = theFileName.lastIndexOf(".");
             if (p > 0) {
                 final String theExtension = theFileName.substring(p + 1);
                 theContent.addMetaData(IndexFields.EXTENSION, theExtension.toLowerCase());
             }
 
+            quarantine.succeeded(theFileName);
+            theContent.setMemoryRelease(theBuffer::close);
+            theBufferHandedOver = true;
             return theContent;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.info("Extraction of " + aFile + " was interrupted");
+        } catch (final TimeoutException e) {
+            LOGGER.warn("Gave up extracting content of " + aFile + " : " + e.getMessage());
+            quarantine.failed(theFileName, aBasicFileAttributes.size(), theLastModified);
+        } catch (final TikaException | SAXException e) {
+            LOGGER.error("Error extracting content of " + aFile, e);
+            quarantine.failed(theFileName, aBasicFileAttributes.size(), theLastModified);
         } catch (final Exception e) {
+            // Missing or locked files are not the fault of the parser, so they are not quarantined
             LOGGER.error("Error extracting content of " + aFile, e);
+        } finally {
+            if (!theBufferHandedOver) {
+                theBuffer.close();
+            }
         }
 
         return null;
     }
 
+    /**
+     * Parses on a separate thread, which is abandoned if it does not finish in time. Once too many
+     * abandoned parsers are still running, parsing happens without timeout until some of them finished.
+     */
+    private void parse(final Path aFile, final Metadata aMetaData, final ExtractedTextBuffer aBuffer) throws Exception {
+        final long theTimeout = extractionTimeoutMillis;
+        if (theTimeout <= 0) {
+            parseInCurrentThread(aFile, aMetaData, aBuffer);
+            return;
+        }
+        if (abandonedParsers.get() >= MAX_ABANDONED_PARSERS) {
+            LOGGER.warn(abandonedParsers.get() + " parsers did not stop after their timeout, parsing " + aFile
+                    + " without timeout. Extracting in separate processes stops them reliably.");
+            parseInCurrentThread(aFile, aMetaData, aBuffer);
+            return;
+        }
+        // Set by whoever is first, the parser when it finished or the caller when it gave up
+        final AtomicBoolean theDone = new AtomicBoolean();
+        final Future<?> theParse = parserPool.submit(() -> {
+            try {
+                parseInCurrentThread(aFile, aMetaData, aBuffer);
+            } finally {
+                if (!theDone.compareAndSet(false, true)) {
+                    abandonedParsers.decrementAndGet();
+                }
+            }
+            return null;
+        });
+        try {
+            theParse.get(theTimeout, TimeUnit.MILLISECONDS);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } catch (final TimeoutException | InterruptedException e) {
+            // Most parsers stop as soon as they write to the abandoned buffer, others at least get interrupted
+            if (theDone.compareAndSet(false, true)) {
+                abandonedParsers.incrementAndGet();
+            }
+            aBuffer.abandon();
+            theParse.cancel(true);
+            if (e instanceof InterruptedException) {
+                throw e;
+            }
+            throw new TimeoutException("Extraction did not finish within " + theTimeout + "ms");
+        }
+    }
+
+    /**
+     * Streams the text of the file into the buffer, up to the maximum length of a document.
+     */
+    private void parseInCurrentThread(final Path aFile, final Metadata aMetaData, final ExtractedTextBuffer aBuffer) throws Exception {
+        final ParseContext theContext = new ParseContext();
+        // Embedded documents are parsed where the document is parsed
+        theContext.set(Parser.class, tika.getParser());
+        final Parser theParser = forkParser != null ? forkParser : tika.getParser();
+        final WriteOutContentHandler theHandler = new WriteOutContentHandler(aBuffer, MAX_CHARACTERS_PER_DOCUMENT);
+        // Backed by the file, so container formats can be opened without copying them
+        try (final InputStream theStream = TikaInputStream.get(aFile)) {
+            theParser.parse(theStream, new BodyContentHandler(theHandler), aMetaData, theContext);
+        } catch (final SAXException e) {
+            if (!theHandler.isWriteLimitReached(e)) {
+                throw new TikaException("Unexpected SAX processing failure", e);
+            }
+        }
+    }
+
+    public boolean isQuarantined(final Path aFile, final BasicFileAttributes aBasicFileAttributes) {
+        if (quarantine.isQuarantined(aFile.toString(), aBasicFileAttributes.size(), aBasicFileAttributes.lastModifiedTime().toMillis())) {
+            LOGGER.info("Skipping " + aFile + ", its extraction failed repeatedly");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The size of the file and the MD5 of all its bytes. The file is streamed, so this costs a read of
+     * the file, but no memory and no parser.
+     */
+    public String fingerprintOf(final Path aFile) {
+        try (final FileChannel theChannel = FileChannel.open(aFile, StandardOpenOption.READ)) {
+            final MessageDigest theDigest = DigestUtils.getMd5Digest();
+            final ByteBuffer theBuffer = ByteBuffer.allocate(FINGERPRINT_BUFFER_BYTES);
+            long theSize = 0;
+            while (theChannel.read(theBuffer) >= 0) {
+                theBuffer.flip();
+                theSize += theBuffer.remaining();
+                theDigest.update(theBuffer);
+                theBuffer.clear();
+            }
+            return theSize + ":" + Hex.encodeHexString(theDigest.digest());
+        } catch (final IOException e) {
+            LOGGER.warn("Cannot compute fingerprint of " + aFile + " : " + e.getMessage());
+            return null;
+        }
+    }
+
     public boolean supportsFile(final String aFilename) {
         for (final SupportedDocumentType theType : configuration.getEnabledDocumentTypes()) {
             if (theType.supports(aFilename)) {
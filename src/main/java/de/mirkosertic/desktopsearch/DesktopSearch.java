@@ -63,12 +63,16 @@ public class DesktopSearch extends Application {
         final PreviewProcessor thePreviewProcessor = new PreviewProcessor();
 
         try {
+            // Rendered previews are kept in memory and on disk
+            final ThumbnailCache theThumbnailCache = new ThumbnailCache(thePreviewProcessor,
+                    new File(configurationManager.getConfiguration().getConfigDirectory(), "thumbnails"));
+
             // Boot the search backend and set it up for listening to configuration changes
-            backend = new Backend(theNotifier, configurationManager.getConfiguration(), thePreviewProcessor);
+            backend = new Backend(theNotifier, configurationManager.getConfiguration(), thePreviewProcessor, theThumbnailCache);
             configurationManager.addChangeListener(backend);
 
             // Boot embedded JSP container
-            embeddedWebServer = new FrontendEmbeddedWebServer(aStage, backend, thePreviewProcessor, configurationManager);
+            embeddedWebServer = new FrontendEmbeddedWebServer(aStage, backend, theThumbnailCache, configurationManager);
 
             embeddedWebServer.start();
         } catch (final BindException|LockReleaseFailedException|LockObtainFailedException e) {
@@ -20,4 +20,8 @@ interface DirectoryListener {
     void fileCreatedOrModified(Configuration.CrawlLocation aLocation, Path aFile);
 
     void fileFoundByCrawler(Configuration.CrawlLocation aLocation, Path aFile);
+
+    void fileUnchangedByCrawler(Configuration.CrawlLocation aLocation, Path aFile);
+
+    boolean supportsFile(Path aFile);
 }
\ No newline at end of file
@@ -0,0 +1,184 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Walks a directory tree in parallel, every subdirectory is walked by its own task. Each directory is read
+ * only once, and the attributes of its files are passed on, so they do not need to be read again.
+ *
+ * Directories in the checkpoint were already reported by an earlier walk. They are still descended to find
+ * their files, but not reported again, so a new walk continues where a cancelled one stopped.
+ *
+ * Files and directories that cannot be read are recorded, as nothing is known about what is below them.
+ */
+class DirectoryTreeWalker {
+
+    private static final Logger LOGGER = Logger.getLogger(DirectoryTreeWalker.class);
+
+    private static final int DEFAULT_PARALLELISM = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    interface Visitor {
+
+        void directoryFound(Path aDirectory) throws IOException;
+
+        void fileFound(Path aFile, BasicFileAttributes aAttributes);
+    }
+
+    private final Set<Path> checkpoint;
+    private final int parallelism;
+    private final Set<Path> failedPaths;
+    private volatile boolean cancelled;
+
+    public DirectoryTreeWalker(final Set<Path> aCheckpoint) {
+        this(aCheckpoint, DEFAULT_PARALLELISM);
+    }
+
+    public DirectoryTreeWalker(final Set<Path> aCheckpoint, final int aParallelism) {
+        checkpoint = aCheckpoint;
+        parallelism = aParallelism;
+        failedPaths = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * True if the file is one of the given paths or below one of them.
+     */
+    public static boolean isBelowAny(final String aFileName, final Set<Path> aPaths) {
+        if (aPaths.isEmpty()) {
+            return false;
+        }
+        for (Path thePath = Paths.get(aFileName); thePath != null; thePath = thePath.getParent()) {
+            if (aPaths.contains(thePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks the tree and returns after all directories were walked.
+     *
+     * @return false if the walk was cancelled
+     * @see #getFailedPaths()
+     */
+    public boolean walk(final Path aRoot, final Visitor aVisitor) {
+        final ForkJoinPool thePool = new ForkJoinPool(parallelism);
+        try {
+            thePool.invoke(new DirectoryTask(aRoot, aVisitor));
+        } finally {
+            thePool.shutdown();
+        }
+        return !cancelled;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * The files and directories the walk could not read. Files that vanished while walking are not included.
+     */
+    public Set<Path> getFailedPaths() {
+        return failedPaths;
+    }
+
+    private void failed(final Path aPath, final IOException aException) {
+        if (!(aException instanceof NoSuchFileException)) {
+            failedPaths.add(aPath);
+        }
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final Visitor visitor;
+
+        private DirectoryTask(final Path aDirectory, final Visitor aVisitor) {
+            directory = aDirectory;
+            visitor = aVisitor;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                return;
+            }
+            if (!checkpoint.contains(directory)) {
+                try {
+                    visitor.directoryFound(directory);
+                    checkpoint.add(directory);
+                } catch (final IOException e) {
+                    LOGGER.warn("Error processing directory " + directory, e);
+                }
+            }
+
+            final List<DirectoryTask> theSubdirectories = new ArrayList<>();
+            try {
+                // Only the direct children, subdirectories are handled by their own tasks
+                Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(final Path aFile, final BasicFileAttributes aAttributes) {
+                        if (aAttributes.isSymbolicLink()) {
+                            // Linked files are indexed with the attributes of their target, linked directories are not followed
+                            try {
+                                final BasicFileAttributes theTargetAttributes = Files.readAttributes(aFile, BasicFileAttributes.class);
+                                if (!theTargetAttributes.isDirectory()) {
+                                    visitor.fileFound(aFile, theTargetAttributes);
+                                }
+                            } catch (final IOException e) {
+                                LOGGER.warn("Cannot read attributes of " + aFile, e);
+                                failed(aFile, e);
+                            }
+                        } else if (aAttributes.isDirectory()) {
+                            theSubdirectories.add(new DirectoryTask(aFile, visitor));
+                        } else {
+                            visitor.fileFound(aFile, aAttributes);
+                        }
+                        return cancelled ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(final Path aFile, final IOException aException) {
+                        LOGGER.warn("Cannot read " + aFile, aException);
+                        failed(aFile, aException);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (final IOException e) {
+                LOGGER.warn("Error walking directory " + directory, e);
+                failed(directory, e);
+            }
+            invokeAll(theSubdirectories);
+        }
+    }
+}
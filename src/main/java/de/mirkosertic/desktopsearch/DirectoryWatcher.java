@@ -15,191 +15,344 @@ package de.mirkosertic.desktopsearch;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DirectoryWatcher {
 
     private static final Logger LOGGER = Logger.getLogger(DirectoryWatcher.class);
 
-    public static final int DEFAULT_WAIT_FOR_ACTION = 5;
-
-    private static class ActionTimer {
-
-        private WatchEvent.Kind kind;
-        private int waitForAction;
-
-        public ActionTimer(final WatchEvent.Kind aKind, final int aWaitForAction) {
-            kind = aKind;
-            waitForAction = aWaitForAction;
-        }
-
-        public void reset(final WatchEvent.Kind aKind, final int aWaitForAction) {
-            kind = aKind;
-            waitForAction = aWaitForAction;
-        }
-
-        public boolean runOneCycle() {
-            return (--waitForAction <= 0);
-        }
-    }
-
-    private final WatchService watchService;
-    private final Thread watcherThread;
-    private final Map<Path, ActionTimer> fileTimers;
-    private final int waitForAction;
-    private final Timer actionTimer;
+    private final WatchEventLoop eventLoop;
+    private final WatchEventLoop.Handler eventHandler;
+    private final FileEventDebouncer debouncer;
+    private final FileEventDebouncer.Action debouncedAction;
+    private final FileEventDebouncer.Action rescanAction;
+    private final Set<Path> directoriesToRescan;
+    private final AtomicBoolean rescanRunning;
     private final DirectoryListener directoryListener;
     private final Configuration.CrawlLocation filesystemLocation;
     private final ExecutorPool executorPool;
+    private final FileStateManifest manifest;
+    private final Set<Path> registeredDirectories;
+    private final Map<Path, Map<Path, RescanState>> rescanStates;
+    private volatile DirectoryTreeWalker registrationWalker;
+    private volatile DirectoryTreeWalker crawlWalker;
 
-    public DirectoryWatcher(final WatchServiceCache aWatchServiceCache, final Configuration.CrawlLocation aFileSystemLocation, final int aWaitForAction, final DirectoryListener aDirectoryListener, final ExecutorPool aExecutorPool) throws IOException {
+    public DirectoryWatcher(final WatchServiceCache aWatchServiceCache, final Configuration.CrawlLocation aFileSystemLocation, final FileEventDebouncer aDebouncer, final DirectoryListener aDirectoryListener, final ExecutorPool aExecutorPool, final FileStateManifest aManifest) throws IOException {
         executorPool = aExecutorPool;
-        fileTimers = new HashMap<>();
-        waitForAction = aWaitForAction;
+        manifest = aManifest;
+        registeredDirectories = ConcurrentHashMap.newKeySet();
+        directoriesToRescan = ConcurrentHashMap.newKeySet();
+        rescanStates = new ConcurrentHashMap<>();
+        rescanRunning = new AtomicBoolean();
+        debouncer = aDebouncer;
         directoryListener = aDirectoryListener;
         filesystemLocation = aFileSystemLocation;
 
-        final Path thePath = aFileSystemLocation.getDirectory().toPath();
-
-        watchService = aWatchServiceCache.getWatchServiceFor(thePath);
-        watcherThread = new Thread("WatcherThread-"+thePath) {
+        eventLoop = aWatchServiceCache.getEventLoopFor(aFileSystemLocation.getDirectory().toPath());
+        // The same instances are needed to unregister them again
+        eventHandler = new WatchEventLoop.Handler() {
             @Override
-            public void run() {
-                while(!isInterrupted()) {
-
-                    try {
-                        final WatchKey theKey = watchService.take();
-                        final Path theParent = (Path) theKey.watchable();
-                        theKey.pollEvents().stream().forEach(theEvent -> {
-                            if (theEvent.kind() == StandardWatchEventKinds.OVERFLOW) {
-                                LOGGER.warn("Overflow for " + theEvent.context() + " count = " + theEvent.count());
-                                // Overflow events are not handled
-                            } else {
-                                final Path thePath = theParent.resolve((Path) theEvent.context());
-                                LOGGER.debug(theEvent.kind() + " for " + theEvent.context() + " count = " + theEvent.count());
-
-                                publishActionFor(thePath, theEvent.kind());
-                            }
-                        });
-                        theKey.reset();
+            public void eventsReceived(final Path aDirectory, final List<WatchEvent<?>> aEvents) {
+                DirectoryWatcher.this.eventsReceived(aDirectory, aEvents);
+            }
 
-                        Thread.sleep(10000);
-                    } catch (final InterruptedException e) {
-                        LOGGER.debug("Has been interrupted");
-                    }
-                }
+            @Override
+            public void pollDirectories(final Set<Path> aDirectories) {
+                // Directories without a watch are compared against the manifest like after an overflow
+                directoriesToRescan.addAll(aDirectories);
+                rescanDirectories();
             }
         };
-        actionTimer = new Timer();
+        debouncedAction = this::performActionFor;
+        rescanAction = (aPath, aKind) -> rescanDirectories();
     }
 
-    private void publishActionFor(final Path aPath, final WatchEvent.Kind aKind ) {
-        synchronized (fileTimers) {
-            final ActionTimer theTimer = fileTimers.get(aPath);
-            if (theTimer == null) {
-                fileTimers.put(aPath, new ActionTimer(aKind, waitForAction));
+    private void eventsReceived(final Path aDirectory, final List<WatchEvent<?>> aEvents) {
+        for (final WatchEvent<?> theEvent : aEvents) {
+            if (theEvent.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOGGER.warn("Overflow for " + aDirectory + " count = " + theEvent.count());
+                // Events were lost, so the directory is compared against the manifest once the burst is over.
+                // The rescan is debounced with the location as key, so all overflows of a burst are handled together.
+                directoriesToRescan.add(aDirectory);
+                debouncer.eventReceived(filesystemLocation.getDirectory().toPath(), StandardWatchEventKinds.OVERFLOW, rescanAction);
             } else {
-                theTimer.reset(aKind, waitForAction);
+                final Path thePath = aDirectory.resolve((Path) theEvent.context());
+                LOGGER.debug(theEvent.kind() + " for " + theEvent.context() + " count = " + theEvent.count());
+
+                debouncer.eventReceived(thePath, theEvent.kind(), debouncedAction);
             }
         }
     }
 
-    private void actionCountDown() {
-        synchronized (fileTimers) {
-            final Set<Path> theKeysToRemove = new HashSet<>();
-            fileTimers.entrySet().stream().forEach(theEntry -> {
-                if (theEntry.getValue().runOneCycle()) {
-                    theKeysToRemove.add(theEntry.getKey());
-                    if (!Files.isDirectory(theEntry.getKey())) {
-                        if (theEntry.getValue().kind == StandardWatchEventKinds.ENTRY_CREATE) {
-                            directoryListener.fileCreatedOrModified(filesystemLocation, theEntry.getKey());
-                        }
-                        if (theEntry.getValue().kind == StandardWatchEventKinds.ENTRY_DELETE) {
-                            directoryListener.fileDeleted(filesystemLocation, theEntry.getKey());
-                        }
-                        if (theEntry.getValue().kind == StandardWatchEventKinds.ENTRY_MODIFY) {
-                            directoryListener.fileCreatedOrModified(filesystemLocation, theEntry.getKey());
-                        }
-                    } else {
-                        try {
-                            if (theEntry.getValue().kind == StandardWatchEventKinds.ENTRY_CREATE) {
-                                registerWatcher(theEntry.getKey());
-                            }
-                            if (theEntry.getValue().kind == StandardWatchEventKinds.ENTRY_MODIFY) {
-                                registerWatcher(theEntry.getKey());
-                            }
-                        } catch (final IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-                }
-            });
-            theKeysToRemove.forEach(fileTimers::remove);
+    private void performActionFor(final Path aPath, final WatchEvent.Kind<?> aKind) {
+        if (!Files.isDirectory(aPath)) {
+            if (aKind == StandardWatchEventKinds.ENTRY_CREATE) {
+                directoryListener.fileCreatedOrModified(filesystemLocation, aPath);
+            }
+            if (aKind == StandardWatchEventKinds.ENTRY_DELETE) {
+                directoryListener.fileDeleted(filesystemLocation, aPath);
+            }
+            if (aKind == StandardWatchEventKinds.ENTRY_MODIFY) {
+                directoryListener.fileCreatedOrModified(filesystemLocation, aPath);
+            }
+        } else {
+            if (aKind == StandardWatchEventKinds.ENTRY_CREATE) {
+                registerWatcher(aPath);
+            }
+            if (aKind == StandardWatchEventKinds.ENTRY_MODIFY) {
+                registerWatcher(aPath);
+            }
         }
     }
 
-    private void registerWatcher(final Path aDirectory) throws IOException {
+    private void registerWatcher(final Path aDirectory) {
         LOGGER.info("New watchable directory detected : " + aDirectory);
-        aDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        if (!eventLoop.register(aDirectory, eventHandler)) {
+            LOGGER.debug("No watch left for " + aDirectory + ", it is polled");
+        }
+        registeredDirectories.add(aDirectory);
     }
 
     public DirectoryWatcher startWatching() {
 
-        final Thread theRegisterWatchers = new Thread("Registering Watchers") {
+        final DirectoryTreeWalker theWalker = new DirectoryTreeWalker(registeredDirectories);
+        registrationWalker = theWalker;
+        final Thread theRegisterWatchers = new Thread(() -> theWalker.walk(filesystemLocation.getDirectory().toPath(), new DirectoryTreeWalker.Visitor() {
             @Override
-            public void run() {
-                try {
-                    Files.walk(filesystemLocation.getDirectory().toPath()).forEach(path -> {
-                        if (Files.isDirectory(path)) {
-                            LOGGER.info("Registering watches for " + path);
-                            try {
-                                registerWatcher(path);
-                            } catch (final IOException e) {
-                                throw new RuntimeException(e);
-                            }
-                        }
-                    });
-                } catch (final IOException e) {
-                    LOGGER.error("Error registering file watcher", e);
-                }
+            public void directoryFound(final Path aDirectory) {
+                registerWatcher(aDirectory);
             }
-        };
-        theRegisterWatchers.start();
 
-        watcherThread.start();
-        actionTimer.scheduleAtFixedRate(new TimerTask() {
             @Override
-            public void run() {
-                actionCountDown();
+            public void fileFound(final Path aFile, final BasicFileAttributes aAttributes) {
+                // Only the directories are of interest here
             }
-        }, 1000, 1000);
+        }), "Registering Watchers");
+        theRegisterWatchers.start();
         return this;
     }
 
     public void stopWatching() {
-        actionTimer.cancel();
-        watcherThread.interrupt();
+        registrationWalker.cancel();
+        final DirectoryTreeWalker theCrawlWalker = crawlWalker;
+        if (theCrawlWalker != null) {
+            theCrawlWalker.cancel();
+        }
+        eventLoop.unregister(eventHandler);
+        debouncer.discard(debouncedAction);
+        debouncer.discard(rescanAction);
+        rescanStates.clear();
+    }
+
+    private void rescanDirectories() {
+        if (!rescanRunning.compareAndSet(false, true)) {
+            // Only one rescan at a time, try again later
+            debouncer.eventReceived(filesystemLocation.getDirectory().toPath(), StandardWatchEventKinds.OVERFLOW, rescanAction);
+            return;
+        }
+        executorPool.execute(() -> {
+            try {
+                final Set<Path> theDirectories = new HashSet<>(directoriesToRescan);
+                directoriesToRescan.removeAll(theDirectories);
+                LOGGER.info("Rescanning " + theDirectories.size() + " directories of " + filesystemLocation);
+                rescan(theDirectories);
+            } catch (final Exception e) {
+                LOGGER.error("Error rescanning " + filesystemLocation, e);
+            } finally {
+                rescanRunning.set(false);
+            }
+        });
     }
 
-    public void crawl() throws IOException {
+    private void rescan(final Set<Path> aDirectories) {
+        final Set<String> theFoundFiles = new HashSet<>();
+        final Set<Path> theUnreadableDirectories = new HashSet<>();
+        final Set<Path> theChangedDirectories = new HashSet<>();
+        for (final Path theDirectory : aDirectories) {
+            // Polled directories are compared against their last rescan, files the manifest does not know,
+            // e.g. quarantined ones or ones that failed, would otherwise count as a change on every poll
+            final Map<Path, RescanState> theLastStates = rescanStates.get(theDirectory);
+            final Map<Path, RescanState> theStates = new HashMap<>();
+            try (final DirectoryStream<Path> theEntries = Files.newDirectoryStream(theDirectory)) {
+                for (final Path theEntry : theEntries) {
+                    final BasicFileAttributes theAttributes;
+                    try {
+                        theAttributes = Files.readAttributes(theEntry, BasicFileAttributes.class);
+                    } catch (final NoSuchFileException e) {
+                        // Deleted in the meantime or a broken link, only this entry is gone
+                        continue;
+                    } catch (final IOException e) {
+                        LOGGER.warn("Cannot read attributes of " + theEntry, e);
+                        // Still there, so it is not reported as deleted
+                        theFoundFiles.add(theEntry.toString());
+                        continue;
+                    }
+                    if (!theAttributes.isDirectory()) {
+                        theFoundFiles.add(theEntry.toString());
+                        if (!directoryListener.supportsFile(theEntry)) {
+                            continue;
+                        }
+                        final RescanState theState = new RescanState(theAttributes);
+                        theStates.put(theEntry, theState);
+                        if (theLastStates != null && theState.equals(theLastStates.get(theEntry))) {
+                            continue;
+                        }
+                        if (theLastStates != null) {
+                            theChangedDirectories.add(theDirectory);
+                        }
+                        if (!manifest.isUnchanged(theEntry, theAttributes)) {
+                            directoryListener.fileCreatedOrModified(filesystemLocation, theEntry);
+                        }
+                    } else if (!registeredDirectories.contains(theEntry)) {
+                        theChangedDirectories.add(theDirectory);
+                        // A new directory, e.g. from an unpacked archive, is walked completely
+                        new DirectoryTreeWalker(registeredDirectories).walk(theEntry, new DirectoryTreeWalker.Visitor() {
+                            @Override
+                            public void directoryFound(final Path aDirectory) {
+                                registerWatcher(aDirectory);
+                            }
+
+                            @Override
+                            public void fileFound(final Path aFile, final BasicFileAttributes aAttributes) {
+                                if (!manifest.isUnchanged(aFile, aAttributes)) {
+                                    directoryListener.fileCreatedOrModified(filesystemLocation, aFile);
+                                }
+                            }
+                        });
+                    }
+                }
+                if (theLastStates != null && !theStates.keySet().containsAll(theLastStates.keySet())) {
+                    theChangedDirectories.add(theDirectory);
+                }
+                if (eventLoop.isPolled(theDirectory)) {
+                    rescanStates.put(theDirectory, theStates);
+                } else {
+                    rescanStates.remove(theDirectory);
+                }
+            } catch (final NoSuchFileException e) {
+                // The directory is gone, so are its files
+                registeredDirectories.remove(theDirectory);
+                eventLoop.stopPolling(theDirectory);
+                rescanStates.remove(theDirectory);
+            } catch (final IOException e) {
+                LOGGER.warn("Cannot rescan " + theDirectory, e);
+                // Nothing known about its files, so nothing is deleted
+                theUnreadableDirectories.add(theDirectory);
+            }
+        }
+
+        // Files of the rescanned directories not found anymore were deleted. Files deeper in the tree
+        // are only checked if the directory containing them is gone, as nothing was lost for the others.
+        final Map<Path, Boolean> theExistingDirectories = new HashMap<>();
+        for (final String theKnownFile : manifest.filesBelow(aDirectories)) {
+            if (theFoundFiles.contains(theKnownFile)) {
+                continue;
+            }
+            final Path theFile = Paths.get(theKnownFile);
+            final Path theParent = theFile.getParent();
+            final boolean theDeleted;
+            if (aDirectories.contains(theParent)) {
+                theDeleted = !theUnreadableDirectories.contains(theParent);
+            } else {
+                theDeleted = !theExistingDirectories.computeIfAbsent(theParent, Files::isDirectory);
+            }
+            if (theDeleted) {
+                directoryListener.fileDeleted(filesystemLocation, theFile);
+                theChangedDirectories.add(theParent);
+            }
+        }
+
+        // Polled directories with changes get a watch again, at the cost of the least recently changed ones
+        for (final Path theDirectory : theChangedDirectories) {
+            if (eventLoop.isPolled(theDirectory) && Files.isDirectory(theDirectory)) {
+                eventLoop.promote(theDirectory, eventHandler);
+                rescanStates.remove(theDirectory);
+            }
+        }
+    }
+
+    /**
+     * @return the files and directories that could not be read, files below them were not reported as deleted
+     */
+    public Set<Path> crawl() throws IOException {
 
         final Path thePath = filesystemLocation.getDirectory().toPath();
 
-        Files.walk(thePath).forEach(aPath -> {
-            if (!Files.isDirectory(aPath)) {
-                executorPool.execute(() -> directoryListener.fileFoundByCrawler(filesystemLocation, aPath));
+        // The crawl also registers the watches, so a running registration is not needed anymore.
+        // Directories it already registered are skipped by the crawl.
+        registrationWalker.cancel();
+
+        // Files with the same size and modification time as recorded in the
+        // manifest are unchanged and do not need to be checked against the index
+        manifest.beginCrawl();
+        final DirectoryTreeWalker theWalker = new DirectoryTreeWalker(registeredDirectories);
+        crawlWalker = theWalker;
+        final boolean theCompleted = theWalker.walk(thePath, new DirectoryTreeWalker.Visitor() {
+            @Override
+            public void directoryFound(final Path aDirectory) {
+                registerWatcher(aDirectory);
+            }
+
+            @Override
+            public void fileFound(final Path aFile, final BasicFileAttributes aAttributes) {
+                if (manifest.isUnchanged(aFile, aAttributes)) {
+                    directoryListener.fileUnchangedByCrawler(filesystemLocation, aFile);
+                } else {
+                    executorPool.execute(() -> directoryListener.fileFoundByCrawler(filesystemLocation, aFile));
+                }
             }
         });
+        crawlWalker = null;
+        if (!theCompleted) {
+            // Files not reached by the crawl must not be reported as deleted
+            throw new InterruptedIOException("Crawl of " + thePath + " was cancelled");
+        }
+
+        // Everything not found by this crawl was deleted in the meantime
+        final Set<Path> theFailedPaths = theWalker.getFailedPaths();
+        for (final String theDeletedFile : manifest.unseenFiles(theFailedPaths)) {
+            executorPool.execute(() -> directoryListener.fileDeleted(filesystemLocation, Paths.get(theDeletedFile)));
+        }
+        return theFailedPaths;
+    }
+
+    private static class RescanState {
+
+        private final long size;
+        private final long lastModified;
+
+        RescanState(final BasicFileAttributes aAttributes) {
+            size = aAttributes.size();
+            lastModified = aAttributes.lastModifiedTime().toMillis();
+        }
+
+        @Override
+        public boolean equals(final Object aOther) {
+            if (!(aOther instanceof RescanState)) {
+                return false;
+            }
+            final RescanState theOther = (RescanState) aOther;
+            return size == theOther.size && lastModified == theOther.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+        }
     }
 }
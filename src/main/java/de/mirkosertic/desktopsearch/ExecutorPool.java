@@ -15,6 +15,7 @@ package de.mirkosertic.desktopsearch;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
 
 class ExecutorPool {
 
@@ -31,4 +32,10 @@ class ExecutorPool {
     public <T> ForkJoinTask<T> submit(final Callable<T> aCallable) {
         return forkJoinPool.submit(aCallable);
     }
+
+    public void awaitQuiescence() {
+        while (!forkJoinPool.awaitQuiescence(1, TimeUnit.SECONDS)) {
+            // Still busy, wait some more
+        }
+    }
 }
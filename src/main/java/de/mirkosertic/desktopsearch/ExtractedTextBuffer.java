@@ -0,0 +1,164 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the text of a document in fixed size chunks taken from a shared budget, and computes its MD5
+ * on the way. The text is only copied once, when the final string is built.
+ *
+ * While the budget is used up by other extractions, writing blocks until they gave memory back, so no
+ * text is lost. Once the buffer was abandoned or closed, writing to it fails.
+ */
+class ExtractedTextBuffer extends Writer {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ExtractionMemoryBudget budget;
+    private final List<char[]> chunks;
+    private final MessageDigest digest;
+    private final Writer digestWriter;
+    private char[] currentChunk;
+    private int currentChunkLength;
+    private int length;
+    private long reserved;
+    private volatile boolean abandoned;
+    private volatile boolean closed;
+
+    public ExtractedTextBuffer(final ExtractionMemoryBudget aBudget) {
+        budget = aBudget;
+        chunks = new ArrayList<>();
+        digest = DigestUtils.getMd5Digest();
+        digestWriter = new OutputStreamWriter(new DigestOutputStream(NullOutputStream.NULL_OUTPUT_STREAM, digest), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(final char[] aBuffer, final int aOffset, final int aLength) throws IOException {
+        int theOffset = aOffset;
+        int theRemaining = aLength;
+        while (theRemaining > 0) {
+            synchronized (chunks) {
+                ensureOpen();
+                if (currentChunk != null && currentChunkLength < currentChunk.length) {
+                    final int theCount = Math.min(theRemaining, currentChunk.length - currentChunkLength);
+                    System.arraycopy(aBuffer, theOffset, currentChunk, currentChunkLength, theCount);
+                    digestWriter.write(aBuffer, theOffset, theCount);
+                    currentChunkLength += theCount;
+                    length += theCount;
+                    theOffset += theCount;
+                    theRemaining -= theCount;
+                    continue;
+                }
+            }
+            // Waiting for the budget must not block abandon(), so the chunks are guarded instead of the
+            // writer lock, which Writer holds around its own write methods
+            acquireChunk();
+            synchronized (chunks) {
+                if (closed) {
+                    budget.release(this, CHUNK_SIZE);
+                    ensureOpen();
+                }
+                reserved += CHUNK_SIZE;
+                currentChunk = new char[CHUNK_SIZE];
+                currentChunkLength = 0;
+                chunks.add(currentChunk);
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (abandoned) {
+            throw new IOException("Extraction was abandoned");
+        }
+        if (closed) {
+            throw new IOException("Buffer was closed");
+        }
+    }
+
+    private void acquireChunk() throws IOException {
+        try {
+            budget.acquire(this, CHUNK_SIZE);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for memory");
+        }
+    }
+
+    /**
+     * Stops a parse that is still running after its timeout, and gives its memory back.
+     */
+    public void abandon() {
+        abandoned = true;
+        close();
+    }
+
+    /**
+     * The MD5 of the UTF-8 encoded text, the same as DigestUtils.md5Hex(toString()).
+     */
+    public String contentMD5() throws IOException {
+        digestWriter.flush();
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Builds the text and drops the chunks, so the buffer can be used only once. The memory stays
+     * reserved for the text until the buffer is closed.
+     */
+    @Override
+    public String toString() {
+        if (chunks.size() == 1) {
+            final String theResult = new String(chunks.get(0), 0, length);
+            chunks.clear();
+            currentChunk = null;
+            return theResult;
+        }
+        final StringBuilder theResult = new StringBuilder(length);
+        for (int i = 0; i < chunks.size(); i++) {
+            final char[] theChunk = chunks.get(i);
+            theResult.append(theChunk, 0, theChunk == currentChunk ? currentChunkLength : theChunk.length);
+            // Keeps the peak at about twice the text
+            chunks.set(i, null);
+        }
+        chunks.clear();
+        currentChunk = null;
+        return theResult.toString();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        synchronized (chunks) {
+            closed = true;
+            chunks.clear();
+            currentChunk = null;
+            budget.release(this, reserved);
+            reserved = 0;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The number of characters all extractions together may buffer.
+ */
+class ExtractionMemoryBudget {
+
+    private final long limit;
+    private final Set<Object> holders;
+    private long used;
+
+    public ExtractionMemoryBudget(final long aLimit) {
+        limit = aLimit;
+        holders = new LinkedHashSet<>();
+    }
+
+    /**
+     * A quarter of the maximum heap, a character takes two bytes.
+     */
+    public static ExtractionMemoryBudget forHeap(final long aMinimumLimit) {
+        return new ExtractionMemoryBudget(Math.max(aMinimumLimit, Runtime.getRuntime().maxMemory() / 8));
+    }
+
+    /**
+     * Waits until the characters are available. The holder that reserved first is never kept waiting,
+     * otherwise extractions that each hold a part of the budget could wait for each other forever.
+     */
+    public synchronized void acquire(final Object aHolder, final int aCharacters) throws InterruptedException {
+        while (used + aCharacters > limit && !isOldest(aHolder)) {
+            wait();
+        }
+        holders.add(aHolder);
+        used += aCharacters;
+    }
+
+    private boolean isOldest(final Object aHolder) {
+        return !holders.isEmpty() && holders.iterator().next() == aHolder;
+    }
+
+    public synchronized void release(final Object aHolder, final long aCharacters) {
+        used -= aCharacters;
+        holders.remove(aHolder);
+        notifyAll();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Files whose extraction failed or timed out repeatedly. They are skipped until their backoff expired,
+ * which doubles with every further failure. A file that was changed gets a new chance right away.
+ *
+ * Changes are written at most once per save interval, and when the quarantine is saved explicitly.
+ */
+class ExtractionQuarantine {
+
+    private static final Logger LOGGER = Logger.getLogger(ExtractionQuarantine.class);
+
+    private static final int MAGIC = 0x46445351;
+    private static final int VERSION = 1;
+
+    static final int FAILURES_BEFORE_QUARANTINE = 2;
+    static final long INITIAL_BACKOFF_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final long MAX_BACKOFF_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final long SAVE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static class Entry {
+
+        private final long size;
+        private final long lastModified;
+        private int failures;
+        private long retryAfter;
+
+        private Entry(final long aSize, final long aLastModified) {
+            size = aSize;
+            lastModified = aLastModified;
+        }
+    }
+
+    private final File quarantineFile;
+    private final Map<String, Entry> entries;
+    private boolean dirty;
+    private long lastSaved;
+
+    private ExtractionQuarantine(final File aQuarantineFile) {
+        quarantineFile = aQuarantineFile;
+        entries = new HashMap<>();
+    }
+
+    public static ExtractionQuarantine open(final File aDirectory) {
+        aDirectory.mkdirs();
+        final ExtractionQuarantine theQuarantine = new ExtractionQuarantine(new File(aDirectory, "extraction.quarantine"));
+        try {
+            theQuarantine.load();
+        } catch (final Exception e) {
+            // Files are only tried again
+            LOGGER.warn("Cannot read quarantine " + theQuarantine.quarantineFile + ", starting with an empty one", e);
+            theQuarantine.entries.clear();
+        }
+        // Deleted files are not tried again, so they would stay forever
+        if (theQuarantine.entries.keySet().removeIf(aFileName -> !new File(aFileName).exists())) {
+            theQuarantine.dirty = true;
+        }
+        return theQuarantine;
+    }
+
+    private void load() throws IOException {
+        if (!quarantineFile.exists()) {
+            return;
+        }
+        try (final DataInputStream theStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(quarantineFile.toPath())))) {
+            if (theStream.readInt() != MAGIC || theStream.readInt() != VERSION) {
+                throw new IOException("Unsupported quarantine format");
+            }
+            final int theCount = theStream.readInt();
+            for (int i = 0; i < theCount; i++) {
+                final String theFileName = theStream.readUTF();
+                final Entry theEntry = new Entry(theStream.readLong(), theStream.readLong());
+                theEntry.failures = theStream.readInt();
+                theEntry.retryAfter = theStream.readLong();
+                entries.put(theFileName, theEntry);
+            }
+        }
+        LOGGER.info("Loaded " + entries.size() + " entries from " + quarantineFile);
+    }
+
+    /**
+     * Writes the quarantine if it was changed since it was last written.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        final Path theTempFile = new File(quarantineFile.getParentFile(), quarantineFile.getName() + ".tmp").toPath();
+        try {
+            try (final DataOutputStream theStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(theTempFile)))) {
+                theStream.writeInt(MAGIC);
+                theStream.writeInt(VERSION);
+                theStream.writeInt(entries.size());
+                for (final Map.Entry<String, Entry> theEntry : entries.entrySet()) {
+                    theStream.writeUTF(theEntry.getKey());
+                    theStream.writeLong(theEntry.getValue().size);
+                    theStream.writeLong(theEntry.getValue().lastModified);
+                    theStream.writeInt(theEntry.getValue().failures);
+                    theStream.writeLong(theEntry.getValue().retryAfter);
+                }
+            }
+            Files.move(theTempFile, quarantineFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+            lastSaved = System.currentTimeMillis();
+        } catch (final IOException e) {
+            LOGGER.error("Cannot write quarantine " + quarantineFile, e);
+        }
+    }
+
+    public synchronized boolean isQuarantined(final String aFileName, final long aSize, final long aLastModified) {
+        final Entry theEntry = entries.get(aFileName);
+        return theEntry != null && theEntry.size == aSize && theEntry.lastModified == aLastModified
+                && theEntry.retryAfter > System.currentTimeMillis();
+    }
+
+    public synchronized void failed(final String aFileName, final long aSize, final long aLastModified) {
+        Entry theEntry = entries.get(aFileName);
+        if (theEntry == null || theEntry.size != aSize || theEntry.lastModified != aLastModified) {
+            theEntry = new Entry(aSize, aLastModified);
+            entries.put(aFileName, theEntry);
+        }
+        theEntry.failures++;
+        if (theEntry.failures >= FAILURES_BEFORE_QUARANTINE) {
+            final int theDoublings = Math.min(theEntry.failures - FAILURES_BEFORE_QUARANTINE, 30);
+            final long theBackoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << theDoublings);
+            theEntry.retryAfter = System.currentTimeMillis() + theBackoff;
+            LOGGER.warn("Extraction of " + aFileName + " failed " + theEntry.failures + " times, skipping it for "
+                    + TimeUnit.MILLISECONDS.toMinutes(theBackoff) + " minutes");
+        }
+        changed();
+    }
+
+    public synchronized void succeeded(final String aFileName) {
+        if (entries.remove(aFileName) != null) {
+            changed();
+        }
+    }
+
+    public synchronized void removed(final String aFileName) {
+        if (entries.remove(aFileName) != null) {
+            changed();
+        }
+    }
+
+    private void changed() {
+        dirty = true;
+        if (System.currentTimeMillis() - lastSaved >= SAVE_INTERVAL_MILLIS) {
+            save();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delays file system events until the file was quiet for some time, so a burst of events results in one
+ * action with the last event kind. Files that never get quiet are handled after a maximum delay.
+ * One instance with a single thread serves all watched locations.
+ */
+class FileEventDebouncer {
+
+    private static final Logger LOGGER = Logger.getLogger(FileEventDebouncer.class);
+
+    interface Action {
+
+        void perform(Path aPath, WatchEvent.Kind<?> aKind);
+    }
+
+    private static class PendingEvent implements Delayed {
+
+        private final Path path;
+        private final Action action;
+        private final long firstEventTime;
+        private WatchEvent.Kind<?> kind;
+        private long lastEventTime;
+        // Only changed while the event is not in the queue
+        private long dueTime;
+
+        private PendingEvent(final Path aPath, final Action aAction, final WatchEvent.Kind<?> aKind, final long aTime) {
+            path = aPath;
+            action = aAction;
+            kind = aKind;
+            firstEventTime = aTime;
+            lastEventTime = aTime;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit aUnit) {
+            return aUnit.convert(dueTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed aOther) {
+            return Long.compare(dueTime, ((PendingEvent) aOther).dueTime);
+        }
+    }
+
+    private final Map<Path, PendingEvent> pendingEvents;
+    private final DelayQueue<PendingEvent> queue;
+    private final Thread thread;
+    private volatile long quietPeriodMillis;
+    private volatile long maxDelayMillis;
+
+    public FileEventDebouncer(final long aQuietPeriodMillis, final long aMaxDelayMillis) {
+        pendingEvents = new HashMap<>();
+        queue = new DelayQueue<>();
+        setDelays(aQuietPeriodMillis, aMaxDelayMillis);
+        thread = new Thread(this::run, "FileEventDebouncer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void setDelays(final long aQuietPeriodMillis, final long aMaxDelayMillis) {
+        quietPeriodMillis = aQuietPeriodMillis;
+        maxDelayMillis = Math.max(aQuietPeriodMillis, aMaxDelayMillis);
+    }
+
+    public void eventReceived(final Path aPath, final WatchEvent.Kind<?> aKind, final Action aAction) {
+        final long theNow = System.currentTimeMillis();
+        synchronized (pendingEvents) {
+            final PendingEvent theEvent = pendingEvents.get(aPath);
+            if (theEvent != null && theEvent.action == aAction) {
+                // The due time is moved when the event leaves the queue
+                theEvent.kind = aKind;
+                theEvent.lastEventTime = theNow;
+                return;
+            }
+            final PendingEvent theNewEvent = new PendingEvent(aPath, aAction, aKind, theNow);
+            theNewEvent.dueTime = theNow + quietPeriodMillis;
+            pendingEvents.put(aPath, theNewEvent);
+            queue.add(theNewEvent);
+        }
+    }
+
+    /**
+     * Drops all events not yet passed to the given action.
+     */
+    public void discard(final Action aAction) {
+        synchronized (pendingEvents) {
+            pendingEvents.values().removeIf(aEvent -> aEvent.action == aAction);
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final PendingEvent theEvent = queue.take();
+                synchronized (pendingEvents) {
+                    if (pendingEvents.get(theEvent.path) != theEvent) {
+                        // Discarded or replaced
+                        continue;
+                    }
+                    final long theDueTime = Math.min(theEvent.lastEventTime + quietPeriodMillis, theEvent.firstEventTime + maxDelayMillis);
+                    if (theDueTime > System.currentTimeMillis()) {
+                        theEvent.dueTime = theDueTime;
+                        queue.add(theEvent);
+                        continue;
+                    }
+                    pendingEvents.remove(theEvent.path);
+                }
+                try {
+                    theEvent.action.perform(theEvent.path, theEvent.kind);
+                } catch (final Exception e) {
+                    LOGGER.error("Error handling " + theEvent.kind + " for " + theEvent.path, e);
+                }
+            }
+        } catch (final InterruptedException e) {
+            LOGGER.debug("Has been interrupted");
+        }
+    }
+}
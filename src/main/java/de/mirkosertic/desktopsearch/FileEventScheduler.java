@@ -0,0 +1,110 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Queues the file events waiting for extraction in separate lanes, so changes made by the user are not
+ * stuck behind the backlog of a crawl. Lanes are served by weighted round robin, so a lane with a lower
+ * weight still makes progress.
+ */
+class FileEventScheduler {
+
+    enum Lane {
+        INTERACTIVE(8), DELETION(4), CRAWL(1);
+
+        private final int weight;
+
+        Lane(final int aWeight) {
+            weight = aWeight;
+        }
+    }
+
+    private final Map<Lane, LinkedHashMap<Path, Backend.FileEvent>> lanes;
+    private final Map<Lane, Integer> currentWeights;
+
+    public FileEventScheduler() {
+        lanes = new EnumMap<>(Lane.class);
+        currentWeights = new EnumMap<>(Lane.class);
+        for (final Lane theLane : Lane.values()) {
+            lanes.put(theLane, new LinkedHashMap<>());
+            currentWeights.put(theLane, 0);
+        }
+    }
+
+    public synchronized void offer(final Backend.FileEvent aEvent) {
+        lanes.get(aEvent.getLane()).put(aEvent.getPath(), aEvent);
+        notifyAll();
+    }
+
+    /**
+     * Moves a queued event for the same path to the lane of the given event, if that lane is more urgent.
+     * Does nothing if no event for the path is queued.
+     */
+    public synchronized void promote(final Backend.FileEvent aEvent) {
+        for (final Lane theLane : Lane.values()) {
+            if (theLane.ordinal() <= aEvent.getLane().ordinal()) {
+                continue;
+            }
+            if (lanes.get(theLane).remove(aEvent.getPath()) != null) {
+                lanes.get(aEvent.getLane()).put(aEvent.getPath(), aEvent);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits for the next event. Every non empty lane gains its weight, the lane with the highest
+     * gain is served and pays the sum of all weights.
+     */
+    public synchronized Backend.FileEvent take() throws InterruptedException {
+        while (true) {
+            Lane theSelected = null;
+            int theTotalWeight = 0;
+            for (final Lane theLane : Lane.values()) {
+                if (!lanes.get(theLane).isEmpty()) {
+                    final int theCurrentWeight = currentWeights.get(theLane) + theLane.weight;
+                    currentWeights.put(theLane, theCurrentWeight);
+                    theTotalWeight += theLane.weight;
+                    if (theSelected == null || theCurrentWeight > currentWeights.get(theSelected)) {
+                        theSelected = theLane;
+                    }
+                } else {
+                    // Idle lanes start from scratch
+                    currentWeights.put(theLane, 0);
+                }
+            }
+            if (theSelected != null) {
+                currentWeights.put(theSelected, currentWeights.get(theSelected) - theTotalWeight);
+                final Iterator<Backend.FileEvent> theEvents = lanes.get(theSelected).values().iterator();
+                final Backend.FileEvent theEvent = theEvents.next();
+                theEvents.remove();
+                return theEvent;
+            }
+            wait();
+        }
+    }
+
+    public synchronized int depthOf(final Lane aLane) {
+        return lanes.get(aLane).size();
+    }
+
+    public synchronized int size() {
+        return lanes.values().stream().mapToInt(Map::size).sum();
+    }
+}
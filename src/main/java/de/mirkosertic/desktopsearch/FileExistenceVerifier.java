@@ -0,0 +1,91 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Checks in the background if the files of search hits still exist. Results of the checks
+ * are cached for a short time, so repeated searches do not hit the file system again.
+ */
+class FileExistenceVerifier {
+
+    private static final Logger LOGGER = Logger.getLogger(FileExistenceVerifier.class);
+
+    private static final long CACHE_TTL_SECONDS = 30;
+    private static final int CACHE_SIZE = 10000;
+    private static final int MAX_PENDING_CHECKS = 1000;
+
+    private final Cache<String, Boolean> existsCache;
+    private final Set<String> pendingChecks;
+    private final ThreadPoolExecutor executor;
+    private final Consumer<String> missingFileHandler;
+
+    public FileExistenceVerifier(final Consumer<String> aMissingFileHandler) {
+        missingFileHandler = aMissingFileHandler;
+        existsCache = CacheBuilder.newBuilder()
+                .maximumSize(CACHE_SIZE)
+                .expireAfterWrite(CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+                .build();
+        pendingChecks = ConcurrentHashMap.newKeySet();
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(MAX_PENDING_CHECKS), aRunnable -> {
+            final Thread theThread = new Thread(aRunnable, "FileExistenceVerifier");
+            theThread.setDaemon(true);
+            return theThread;
+        });
+    }
+
+    public boolean isKnownMissing(final String aFileName) {
+        return Boolean.FALSE.equals(existsCache.getIfPresent(aFileName));
+    }
+
+    public void verify(final String aFileName) {
+        if (existsCache.getIfPresent(aFileName) != null || !pendingChecks.add(aFileName)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    final boolean theExists = new File(aFileName).exists();
+                    existsCache.put(aFileName, theExists);
+                    if (!theExists) {
+                        // Document can be deleted, as it is no longer on the hard drive
+                        missingFileHandler.accept(aFileName);
+                    }
+                } catch (final Exception e) {
+                    LOGGER.error("Error verifying " + aFileName, e);
+                } finally {
+                    pendingChecks.remove(aFileName);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // Too many checks queued, the file will be checked again by the next search
+            pendingChecks.remove(aFileName);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,404 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * On disk record of the size and modification time of every indexed file of a crawl location. The crawler
+ * compares the file system against this manifest, so only real changes need to reach the index.
+ *
+ * The manifest records the id of the index it belongs to. If the index was replaced, the manifest is
+ * discarded, as the files it knows are not indexed anymore.
+ *
+ * The entries are kept in arrays sorted by their UTF-8 encoded path, so a file costs little more than its
+ * path, and all files below a directory are a range of entries. Added files are collected separately and
+ * merged into the arrays once there are enough of them.
+ */
+class FileStateManifest {
+
+    private static final Logger LOGGER = Logger.getLogger(FileStateManifest.class);
+
+    private static final int MAGIC = 0x46445331;
+    private static final int VERSION = 3;
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    private static final int RECORD_SIZE_WITHOUT_PATH = 2 * 8 + 4;
+    private static final int MIN_CHANGES_BEFORE_MERGE = 4096;
+
+    private static class AddedEntry {
+
+        private final byte[] path;
+        private long size;
+        private long lastModified;
+        private boolean seen;
+
+        private AddedEntry(final byte[] aPath) {
+            path = aPath;
+        }
+    }
+
+    private final File manifestFile;
+    private final byte[] indexId;
+    private int count;
+    private byte[] paths;
+    // The path of entry i is the bytes from pathOffsets[i] to pathOffsets[i + 1]
+    private int[] pathOffsets;
+    private long[] sizes;
+    private long[] lastModifieds;
+    private BitSet seen;
+    // Removed entries stay in the arrays until the next merge
+    private BitSet removed;
+    private int removedCount;
+    private final Map<String, AddedEntry> added;
+    private boolean dirty;
+
+    private FileStateManifest(final File aManifestFile, final String aIndexId) {
+        manifestFile = aManifestFile;
+        indexId = aIndexId.getBytes(StandardCharsets.UTF_8);
+        added = new HashMap<>();
+        clear();
+    }
+
+    private void clear() {
+        count = 0;
+        paths = new byte[0];
+        pathOffsets = new int[1];
+        sizes = new long[0];
+        lastModifieds = new long[0];
+        seen = new BitSet();
+        removed = new BitSet();
+        removedCount = 0;
+        added.clear();
+    }
+
+    public static FileStateManifest open(final File aDirectory, final String aLocationId, final String aIndexId) {
+        aDirectory.mkdirs();
+        final FileStateManifest theManifest = new FileStateManifest(new File(aDirectory, aLocationId + ".manifest"), aIndexId);
+        try {
+            theManifest.load();
+        } catch (final Exception e) {
+            // A broken manifest only costs a full comparison against the index
+            LOGGER.warn("Cannot read manifest " + theManifest.manifestFile + ", starting with an empty one", e);
+            theManifest.clear();
+            theManifest.dirty = true;
+        }
+        return theManifest;
+    }
+
+    private void load() throws IOException {
+        if (!manifestFile.exists()) {
+            return;
+        }
+        try (final DataInputStream theStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestFile.toPath()), WRITE_BUFFER_SIZE))) {
+            if (theStream.readInt() != MAGIC || theStream.readInt() != VERSION) {
+                throw new IOException("Unsupported manifest format");
+            }
+            final byte[] theIndexId = new byte[theStream.readInt()];
+            theStream.readFully(theIndexId);
+            if (!Arrays.equals(theIndexId, indexId)) {
+                LOGGER.info("Manifest " + manifestFile + " belongs to another index, starting with an empty one");
+                dirty = true;
+                return;
+            }
+            final int theCount = theStream.readInt();
+            paths = new byte[theStream.readInt()];
+            pathOffsets = new int[theCount + 1];
+            sizes = new long[theCount];
+            lastModifieds = new long[theCount];
+            for (int i = 0; i < theCount; i++) {
+                sizes[i] = theStream.readLong();
+                lastModifieds[i] = theStream.readLong();
+                final int theLength = theStream.readInt();
+                theStream.readFully(paths, pathOffsets[i], theLength);
+                pathOffsets[i + 1] = pathOffsets[i] + theLength;
+                if (i > 0 && Arrays.compareUnsigned(paths, pathOffsets[i - 1], pathOffsets[i], paths, pathOffsets[i], pathOffsets[i + 1]) >= 0) {
+                    throw new IOException("Manifest entries are not sorted");
+                }
+            }
+            count = theCount;
+        }
+        LOGGER.info("Loaded " + count + " entries from " + manifestFile);
+    }
+
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        merge();
+        final Path theTempFile = new File(manifestFile.getParentFile(), manifestFile.getName() + ".tmp").toPath();
+        try (final FileChannel theChannel = FileChannel.open(theTempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            final ByteBuffer theBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            theBuffer.putInt(MAGIC);
+            theBuffer.putInt(VERSION);
+            theBuffer.putInt(indexId.length);
+            theBuffer.put(indexId);
+            theBuffer.putInt(count);
+            theBuffer.putInt(pathOffsets[count]);
+            for (int i = 0; i < count; i++) {
+                final int theLength = pathOffsets[i + 1] - pathOffsets[i];
+                if (theBuffer.remaining() < RECORD_SIZE_WITHOUT_PATH + theLength) {
+                    writeFully(theChannel, theBuffer);
+                }
+                if (theBuffer.remaining() < RECORD_SIZE_WITHOUT_PATH + theLength) {
+                    throw new IOException("Path too long for manifest : " + pathOf(i));
+                }
+                theBuffer.putLong(sizes[i]);
+                theBuffer.putLong(lastModifieds[i]);
+                theBuffer.putInt(theLength);
+                theBuffer.put(paths, pathOffsets[i], theLength);
+            }
+            writeFully(theChannel, theBuffer);
+            theChannel.force(true);
+        }
+        Files.move(theTempFile, manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    private static void writeFully(final FileChannel aChannel, final ByteBuffer aBuffer) throws IOException {
+        aBuffer.flip();
+        while (aBuffer.hasRemaining()) {
+            aChannel.write(aBuffer);
+        }
+        aBuffer.clear();
+    }
+
+    public synchronized void beginCrawl() {
+        seen.clear();
+        added.values().forEach(aEntry -> aEntry.seen = false);
+    }
+
+    /**
+     * Marks the file as seen by the current crawl and checks if size and modification time are still the same as
+     * recorded.
+     */
+    public synchronized boolean isUnchanged(final Path aFile, final BasicFileAttributes aAttributes) {
+        final String theFileName = aFile.toString();
+        final int theIndex = indexOf(theFileName.getBytes(StandardCharsets.UTF_8));
+        if (theIndex >= 0 && !removed.get(theIndex)) {
+            seen.set(theIndex);
+            return sizes[theIndex] == aAttributes.size() && lastModifieds[theIndex] == aAttributes.lastModifiedTime().toMillis();
+        }
+        final AddedEntry theEntry = added.get(theFileName);
+        if (theEntry == null) {
+            return false;
+        }
+        theEntry.seen = true;
+        return theEntry.size == aAttributes.size() && theEntry.lastModified == aAttributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * The files not seen by the current crawl, except for the ones at or below the given paths.
+     */
+    public synchronized List<String> unseenFiles(final Set<Path> aExcludedPaths) {
+        final List<String> theResult = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (!seen.get(i) && !removed.get(i)) {
+                final String theFileName = pathOf(i);
+                if (!DirectoryTreeWalker.isBelowAny(theFileName, aExcludedPaths)) {
+                    theResult.add(theFileName);
+                }
+            }
+        }
+        added.forEach((aFileName, aEntry) -> {
+            if (!aEntry.seen && !DirectoryTreeWalker.isBelowAny(aFileName, aExcludedPaths)) {
+                theResult.add(aFileName);
+            }
+        });
+        return theResult;
+    }
+
+    /**
+     * The recorded files somewhere below one of the given directories.
+     */
+    public synchronized List<String> filesBelow(final Set<Path> aDirectories) {
+        final Set<String> theResult = new LinkedHashSet<>();
+        for (final Path theDirectory : aDirectories) {
+            final String theDirectoryName = theDirectory.toString();
+            final String thePrefix = theDirectoryName.endsWith(File.separator) ? theDirectoryName : theDirectoryName + File.separator;
+            final byte[] thePrefixBytes = thePrefix.getBytes(StandardCharsets.UTF_8);
+            final int theStart = indexOf(thePrefixBytes);
+            for (int i = theStart >= 0 ? theStart : -theStart - 1; i < count && startsWith(i, thePrefixBytes); i++) {
+                if (!removed.get(i)) {
+                    theResult.add(pathOf(i));
+                }
+            }
+            for (final String theFileName : added.keySet()) {
+                if (theFileName.startsWith(thePrefix)) {
+                    theResult.add(theFileName);
+                }
+            }
+        }
+        return new ArrayList<>(theResult);
+    }
+
+    public synchronized void update(final String aFileName, final long aSize, final long aLastModified) {
+        final byte[] thePath = aFileName.getBytes(StandardCharsets.UTF_8);
+        final int theIndex = indexOf(thePath);
+        if (theIndex >= 0) {
+            if (removed.get(theIndex)) {
+                removed.clear(theIndex);
+                removedCount--;
+            }
+            sizes[theIndex] = aSize;
+            lastModifieds[theIndex] = aLastModified;
+            seen.set(theIndex);
+        } else {
+            final AddedEntry theEntry = added.computeIfAbsent(aFileName, aKey -> new AddedEntry(thePath));
+            theEntry.size = aSize;
+            theEntry.lastModified = aLastModified;
+            theEntry.seen = true;
+            mergeIfNeeded();
+        }
+        dirty = true;
+    }
+
+    public synchronized void remove(final String aFileName) {
+        final int theIndex = indexOf(aFileName.getBytes(StandardCharsets.UTF_8));
+        if (theIndex >= 0 && !removed.get(theIndex)) {
+            removed.set(theIndex);
+            removedCount++;
+            dirty = true;
+            mergeIfNeeded();
+        } else if (added.remove(aFileName) != null) {
+            dirty = true;
+        }
+    }
+
+    public synchronized int size() {
+        return count - removedCount + added.size();
+    }
+
+    private void mergeIfNeeded() {
+        // Merging copies all entries, so it is only done after a share of them changed
+        if (added.size() + removedCount >= Math.max(MIN_CHANGES_BEFORE_MERGE, count / 4)) {
+            merge();
+        }
+    }
+
+    /**
+     * Builds new arrays from the entries that were not removed and the added ones.
+     */
+    private void merge() {
+        if (added.isEmpty() && removedCount == 0) {
+            return;
+        }
+        final List<AddedEntry> theAdded = new ArrayList<>(added.values());
+        theAdded.sort((aEntry1, aEntry2) -> Arrays.compareUnsigned(aEntry1.path, aEntry2.path));
+
+        final int theCount = count - removedCount + theAdded.size();
+        int thePathBytes = 0;
+        for (int i = 0; i < count; i++) {
+            if (!removed.get(i)) {
+                thePathBytes += pathOffsets[i + 1] - pathOffsets[i];
+            }
+        }
+        for (final AddedEntry theEntry : theAdded) {
+            thePathBytes += theEntry.path.length;
+        }
+
+        final byte[] thePaths = new byte[thePathBytes];
+        final int[] thePathOffsets = new int[theCount + 1];
+        final long[] theSizes = new long[theCount];
+        final long[] theLastModifieds = new long[theCount];
+        final BitSet theSeen = new BitSet(theCount);
+        int theExisting = 0;
+        int theNext = 0;
+        for (int i = 0; i < theCount; i++) {
+            while (theExisting < count && removed.get(theExisting)) {
+                theExisting++;
+            }
+            // An added file is never in the arrays, so there are no equal paths
+            if (theNext == theAdded.size() || (theExisting < count && compareTo(theExisting, theAdded.get(theNext).path) < 0)) {
+                final int theLength = pathOffsets[theExisting + 1] - pathOffsets[theExisting];
+                System.arraycopy(paths, pathOffsets[theExisting], thePaths, thePathOffsets[i], theLength);
+                thePathOffsets[i + 1] = thePathOffsets[i] + theLength;
+                theSizes[i] = sizes[theExisting];
+                theLastModifieds[i] = lastModifieds[theExisting];
+                theSeen.set(i, seen.get(theExisting));
+                theExisting++;
+            } else {
+                final AddedEntry theEntry = theAdded.get(theNext++);
+                System.arraycopy(theEntry.path, 0, thePaths, thePathOffsets[i], theEntry.path.length);
+                thePathOffsets[i + 1] = thePathOffsets[i] + theEntry.path.length;
+                theSizes[i] = theEntry.size;
+                theLastModifieds[i] = theEntry.lastModified;
+                theSeen.set(i, theEntry.seen);
+            }
+        }
+
+        count = theCount;
+        paths = thePaths;
+        pathOffsets = thePathOffsets;
+        sizes = theSizes;
+        lastModifieds = theLastModifieds;
+        seen = theSeen;
+        removed = new BitSet();
+        removedCount = 0;
+        added.clear();
+    }
+
+    /**
+     * The index of the path, or -(insertion point) - 1 if it is not in the arrays.
+     */
+    private int indexOf(final byte[] aPath) {
+        int theLow = 0;
+        int theHigh = count - 1;
+        while (theLow <= theHigh) {
+            final int theMiddle = (theLow + theHigh) >>> 1;
+            final int theComparison = compareTo(theMiddle, aPath);
+            if (theComparison < 0) {
+                theLow = theMiddle + 1;
+            } else if (theComparison > 0) {
+                theHigh = theMiddle - 1;
+            } else {
+                return theMiddle;
+            }
+        }
+        return -(theLow + 1);
+    }
+
+    private int compareTo(final int aIndex, final byte[] aPath) {
+        return Arrays.compareUnsigned(paths, pathOffsets[aIndex], pathOffsets[aIndex + 1], aPath, 0, aPath.length);
+    }
+
+    private boolean startsWith(final int aIndex, final byte[] aPrefix) {
+        return pathOffsets[aIndex + 1] - pathOffsets[aIndex] >= aPrefix.length
+                && Arrays.equals(paths, pathOffsets[aIndex], pathOffsets[aIndex] + aPrefix.length, aPrefix, 0, aPrefix.length);
+    }
+
+    private String pathOf(final int aIndex) {
+        return new String(paths, pathOffsets[aIndex], pathOffsets[aIndex + 1] - pathOffsets[aIndex], StandardCharsets.UTF_8);
+    }
+}
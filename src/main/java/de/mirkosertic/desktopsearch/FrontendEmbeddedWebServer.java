@@ -27,7 +27,7 @@ class FrontendEmbeddedWebServer {
     private final Server jetty;
 
     public FrontendEmbeddedWebServer(
-            final Stage aStage, final Backend aBackend, final PreviewProcessor aPreviewProcessor, final ConfigurationManager aConfigurationManager) {
+            final Stage aStage, final Backend aBackend, final ThumbnailCache aThumbnailCache, final ConfigurationManager aConfigurationManager) {
         jetty = new Server(PORT_NUMMER);
 
         final WebAppContext theWebApp = new WebAppContext();
@@ -38,7 +38,7 @@ class FrontendEmbeddedWebServer {
         theWebApp.addServlet(new ServletHolder(new SearchServlet(aBackend, "http://127.0.0.1:" + PORT_NUMMER)), SearchServlet.URL + "/*");
         theWebApp.addServlet(new ServletHolder(new BringToFrontServlet(aStage)), BringToFrontServlet.URL);
         theWebApp.addServlet(new ServletHolder(new SuggestionServlet(aBackend)), SuggestionServlet.URL);
-        theWebApp.addServlet(new ServletHolder(new ThumbnailServlet(aBackend, aPreviewProcessor)), ThumbnailServlet.URL + "/*");
+        theWebApp.addServlet(new ServletHolder(new ThumbnailServlet(aBackend, aThumbnailCache)), ThumbnailServlet.URL + "/*");
 
         jetty.setHandler(theWebApp);
     }
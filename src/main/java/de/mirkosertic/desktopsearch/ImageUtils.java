@@ -12,13 +12,27 @@
  */
 package de.mirkosertic.desktopsearch;
 
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
 
 public class ImageUtils {
 
+    // Scratch buffers up to this size are kept for the next rescale on the same thread
+    private static final int MAX_RETAINED_SCRATCH_PIXELS = 1024 * 1024;
+    private static final float JPEG_QUALITY = 0.8f;
+
+    private static final ThreadLocal<BufferedImage[]> SCRATCH_BUFFERS = ThreadLocal.withInitial(() -> new BufferedImage[2]);
+
     public static enum RescaleMethod {
         /**
          * Scale input image so that width and height is equal (or smaller) to the output size.
@@ -78,7 +92,7 @@ public class ImageUtils {
             theOffsetY = 0;
         }
 
-        final BufferedImage outputImage = new BufferedImage(aWidth, aHeight, BufferedImage.TYPE_INT_ARGB);
+        final BufferedImage outputImage = new BufferedImage(aWidth, aHeight, BufferedImage.TYPE_INT_RGB);
         final Graphics2D graphics2D = outputImage.createGraphics();
 
         // Fill background with white color
@@ -86,11 +100,97 @@ public class ImageUtils {
         graphics2D.setPaint(Color.WHITE);
         graphics2D.fillRect(0, 0, aWidth, aHeight);
 
+        // Bilinear filtering only looks at neighbouring pixels, so large images are halved step by step
+        BufferedImage theSource = aImage;
+        int theSourceWidth = theOriginalWidth;
+        int theSourceHeight = theOriginalHeight;
+        int theStep = 0;
+        while (theSourceWidth / 2 >= theScaledWidth && theSourceHeight / 2 >= theScaledHeight) {
+            final int theStepWidth = Math.max(theSourceWidth / 2, 1);
+            final int theStepHeight = Math.max(theSourceHeight / 2, 1);
+            final BufferedImage theTarget = scratchBuffer(theStep % 2, theStepWidth, theStepHeight);
+            final Graphics2D theStepGraphics = theTarget.createGraphics();
+            if (theStep == 0) {
+                // Transparent areas of the original become white
+                theStepGraphics.setPaint(Color.WHITE);
+                theStepGraphics.fillRect(0, 0, theStepWidth, theStepHeight);
+            }
+            theStepGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            theStepGraphics.drawImage(theSource, 0, 0, theStepWidth, theStepHeight, 0, 0, theSourceWidth, theSourceHeight, null);
+            theStepGraphics.dispose();
+
+            theSource = theTarget;
+            theSourceWidth = theStepWidth;
+            theSourceHeight = theStepHeight;
+            theStep++;
+        }
+
         // Enable smooth, high-quality resampling
         graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        graphics2D.drawImage(aImage, theOffsetX, theOffsetY, theScaledWidth, theScaledHeight, null);
+        graphics2D.drawImage(theSource, theOffsetX, theOffsetY, theOffsetX + theScaledWidth, theOffsetY + theScaledHeight,
+                0, 0, theSourceWidth, theSourceHeight, null);
         graphics2D.dispose();
 
         return outputImage;
     }
-}
\ No newline at end of file
+
+    private static BufferedImage scratchBuffer(final int aIndex, final int aWidth, final int aHeight) {
+        final BufferedImage[] theBuffers = SCRATCH_BUFFERS.get();
+        final BufferedImage theBuffer = theBuffers[aIndex];
+        if (theBuffer != null && theBuffer.getWidth() >= aWidth && theBuffer.getHeight() >= aHeight) {
+            return theBuffer;
+        }
+        final int theWidth = theBuffer != null ? Math.max(theBuffer.getWidth(), aWidth) : aWidth;
+        final int theHeight = theBuffer != null ? Math.max(theBuffer.getHeight(), aHeight) : aHeight;
+        if ((long) theWidth * theHeight > MAX_RETAINED_SCRATCH_PIXELS) {
+            // Too large to keep around
+            return new BufferedImage(aWidth, aHeight, BufferedImage.TYPE_INT_RGB);
+        }
+        final BufferedImage theNewBuffer = new BufferedImage(theWidth, theHeight, BufferedImage.TYPE_INT_RGB);
+        theBuffers[aIndex] = theNewBuffer;
+        return theNewBuffer;
+    }
+
+    /**
+     * Writes the image in the given format. JPEG images are compressed with a quality suitable for thumbnails.
+     *
+     * @return false if there is no writer for the format
+     */
+    public static boolean write(final BufferedImage aImage, final String aFormat, final OutputStream aStream) throws IOException {
+        final Iterator<ImageWriter> theWriters = ImageIO.getImageWritersByFormatName(aFormat);
+        if (!theWriters.hasNext()) {
+            return false;
+        }
+        final ImageWriter theWriter = theWriters.next();
+        final ImageWriteParam theParam = theWriter.getDefaultWriteParam();
+        if (isJPEG(aFormat)) {
+            theParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            theParam.setCompressionQuality(JPEG_QUALITY);
+        }
+        // JPEG has no alpha channel
+        final BufferedImage theImage = isJPEG(aFormat) && aImage.getColorModel().hasAlpha() ? withoutAlpha(aImage) : aImage;
+        try (ImageOutputStream theOutput = ImageIO.createImageOutputStream(aStream)) {
+            theWriter.setOutput(theOutput);
+            theWriter.write(null, new IIOImage(theImage, null, null), theParam);
+        } finally {
+            theWriter.dispose();
+        }
+        return true;
+    }
+
+    public static String mimeTypeOf(final String aFormat) {
+        return isJPEG(aFormat) ? "image/jpeg" : "image/" + aFormat.toLowerCase();
+    }
+
+    private static boolean isJPEG(final String aFormat) {
+        return "jpg".equalsIgnoreCase(aFormat) || "jpeg".equalsIgnoreCase(aFormat);
+    }
+
+    private static BufferedImage withoutAlpha(final BufferedImage aImage) {
+        final BufferedImage theResult = new BufferedImage(aImage.getWidth(), aImage.getHeight(), BufferedImage.TYPE_INT_RGB);
+        final Graphics2D theGraphics = theResult.createGraphics();
+        theGraphics.drawImage(aImage, 0, 0, Color.WHITE, null);
+        theGraphics.dispose();
+        return theResult;
+    }
+}
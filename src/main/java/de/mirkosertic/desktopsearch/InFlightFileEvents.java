@@ -0,0 +1,65 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the file events between publishing and the index update, so there is at most one event per path
+ * in the pipeline. A new event for a path already in the pipeline replaces the pending one. If the pending
+ * one was already processed, the new one is published again once the processing is complete.
+ */
+class InFlightFileEvents {
+
+    private final Map<Path, Backend.FileEvent> latestEvents;
+
+    public InFlightFileEvents() {
+        latestEvents = new HashMap<>();
+    }
+
+    /**
+     * @return true if the event has to be published, false if it was merged into the pending event of the path
+     */
+    public synchronized boolean offer(final Backend.FileEvent aEvent) {
+        return latestEvents.put(aEvent.getPath(), aEvent) == null;
+    }
+
+    /**
+     * The most recent event for the path of the given one, which is to be processed instead.
+     */
+    public synchronized Backend.FileEvent latestFor(final Backend.FileEvent aEvent) {
+        final Backend.FileEvent theLatest = latestEvents.get(aEvent.getPath());
+        return theLatest != null ? theLatest : aEvent;
+    }
+
+    /**
+     * Completes the processing of an event.
+     *
+     * @return a newer event for the same path that has to be published again, or null
+     */
+    public synchronized Backend.FileEvent complete(final Backend.FileEvent aProcessedEvent) {
+        final Backend.FileEvent theLatest = latestEvents.get(aProcessedEvent.getPath());
+        if (theLatest == null || theLatest == aProcessedEvent) {
+            latestEvents.remove(aProcessedEvent.getPath());
+            return null;
+        }
+        // Arrived while the processed event was already past the point it was merged
+        return theLatest;
+    }
+
+    public synchronized int size() {
+        return latestEvents.size();
+    }
+}
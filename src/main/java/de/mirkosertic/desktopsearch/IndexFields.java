@@ -22,9 +22,12 @@ public interface IndexFields {
     String LANGUAGE = "language";
     String CONTENT = "content";
     String CONTENTMD5 = "contentmd5";
+    String METADATAMD5 = "metadatamd5";
+    String FINGERPRINT = "fingerprint";
     String FILESIZE = "filesize";
     String LASTMODIFIED = "lastmodified";
     String LOCATIONID = "locationid";
+    String VERIFIEDLASTMODIFIED = "verifiedlastmodified";
 
     String EXTENSION = "extension";
 }
\ No newline at end of file
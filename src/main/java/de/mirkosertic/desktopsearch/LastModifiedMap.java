@@ -0,0 +1,180 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Open addressing map from the 64 bit hash of a file name to its last modification time.
+ * Uses primitive arrays instead of boxed entries, so a few hundred thousand files
+ * only need a few megabytes of heap. Every entry also has a flag telling if the file
+ * was seen by the current crawl.
+ */
+class LastModifiedMap {
+
+    public static final long NOT_FOUND = Long.MIN_VALUE;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    // Zero is used to mark free slots, hashes of zero are remapped
+    private static final long FREE = 0;
+
+    private long[] keys;
+    private long[] values;
+    private boolean[] seen;
+    private int size;
+
+    public LastModifiedMap() {
+        this(1024);
+    }
+
+    public LastModifiedMap(final int aExpectedSize) {
+        int theCapacity = 16;
+        while (theCapacity < aExpectedSize * 2) {
+            theCapacity <<= 1;
+        }
+        keys = new long[theCapacity];
+        values = new long[theCapacity];
+        seen = new boolean[theCapacity];
+    }
+
+    public static long hash(final String aFileName) {
+        final long theHash = HASH_FUNCTION.hashString(aFileName, StandardCharsets.UTF_8).asLong();
+        return theHash == FREE ? 1 : theHash;
+    }
+
+    public synchronized void put(final String aFileName, final long aLastModified) {
+        if (size * 2 >= keys.length) {
+            grow();
+        }
+        if (insert(keys, values, seen, hash(aFileName), aLastModified, false)) {
+            size++;
+        }
+    }
+
+    public synchronized long get(final String aFileName) {
+        final int theSlot = slotOf(aFileName);
+        return theSlot < 0 ? NOT_FOUND : values[theSlot];
+    }
+
+    /**
+     * @return false if the file is not in the map
+     */
+    public synchronized boolean markAsSeen(final String aFileName) {
+        final int theSlot = slotOf(aFileName);
+        if (theSlot < 0) {
+            return false;
+        }
+        seen[theSlot] = true;
+        return true;
+    }
+
+    /**
+     * True if the file is in the map, but was not marked as seen.
+     */
+    public synchronized boolean isUnseen(final String aFileName) {
+        final int theSlot = slotOf(aFileName);
+        return theSlot >= 0 && !seen[theSlot];
+    }
+
+    private int slotOf(final String aFileName) {
+        final long theKey = hash(aFileName);
+        final int theMask = keys.length - 1;
+        int theSlot = slotFor(theKey, theMask);
+        while (keys[theSlot] != FREE) {
+            if (keys[theSlot] == theKey) {
+                return theSlot;
+            }
+            theSlot = (theSlot + 1) & theMask;
+        }
+        return -1;
+    }
+
+    public synchronized void remove(final String aFileName) {
+        final long theKey = hash(aFileName);
+        final int theMask = keys.length - 1;
+        int theSlot = slotFor(theKey, theMask);
+        while (keys[theSlot] != FREE) {
+            if (keys[theSlot] == theKey) {
+                keys[theSlot] = FREE;
+                seen[theSlot] = false;
+                size--;
+                // Reinsert the rest of the cluster to keep the probe sequences intact
+                int theNext = (theSlot + 1) & theMask;
+                while (keys[theNext] != FREE) {
+                    final long theMovedKey = keys[theNext];
+                    final long theMovedValue = values[theNext];
+                    final boolean theMovedSeen = seen[theNext];
+                    keys[theNext] = FREE;
+                    seen[theNext] = false;
+                    insert(keys, values, seen, theMovedKey, theMovedValue, theMovedSeen);
+                    theNext = (theNext + 1) & theMask;
+                }
+                return;
+            }
+            theSlot = (theSlot + 1) & theMask;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void grow() {
+        final long[] theKeys = new long[keys.length * 2];
+        final long[] theValues = new long[values.length * 2];
+        final boolean[] theSeen = new boolean[seen.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                insert(theKeys, theValues, theSeen, keys[i], values[i], seen[i]);
+            }
+        }
+        keys = theKeys;
+        values = theValues;
+        seen = theSeen;
+    }
+
+    private static int slotFor(final long aKey, final int aMask) {
+        return (int) (aKey ^ (aKey >>> 32)) & aMask;
+    }
+
+    /**
+     * An existing entry keeps its seen flag.
+     */
+    private static boolean insert(final long[] aKeys, final long[] aValues, final boolean[] aSeen, final long aKey, final long aValue,
+            final boolean aSeenFlag) {
+        final int theMask = aKeys.length - 1;
+        int theSlot = slotFor(aKey, theMask);
+        while (aKeys[theSlot] != FREE) {
+            if (aKeys[theSlot] == aKey) {
+                aValues[theSlot] = aValue;
+                return false;
+            }
+            theSlot = (theSlot + 1) & theMask;
+        }
+        aKeys[theSlot] = aKey;
+        aValues[theSlot] = aValue;
+        aSeen[theSlot] = aSeenFlag;
+        return true;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(seen, false);
+        size = 0;
+    }
+}
@@ -13,7 +13,6 @@
 package de.mirkosertic.desktopsearch;
 
 import org.apache.commons.codec.EncoderException;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.codec.net.URLCodec;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -26,33 +25,81 @@ import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.tika.utils.DateUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 class LuceneIndexHandler {
 
     private static final Logger LOGGER = Logger.getLogger(LuceneIndexHandler.class);
 
+    /**
+     * What is needed to tell if the indexed version of a file is still up to date.
+     */
+    public static class IndexedDocument {
+
+        private final String fingerprint;
+        private final String contentMD5;
+        private final String metadataMD5;
+        private final long fileSize;
+
+        private IndexedDocument(final String aFingerprint, final String aContentMD5, final String aMetadataMD5, final long aFileSize) {
+            fingerprint = aFingerprint;
+            contentMD5 = aContentMD5;
+            metadataMD5 = aMetadataMD5;
+            fileSize = aFileSize;
+        }
+
+        public boolean hasFingerprint(final String aFingerprint) {
+            return fingerprint != null && fingerprint.equals(aFingerprint);
+        }
+
+        /**
+         * True if the extracted content would result in the same document. Documents indexed before
+         * the metadata was hashed are compared by their content only.
+         */
+        public boolean isSameAs(final Content aContent) {
+            return fileSize == aContent.getFileSize() && contentMD5 != null && contentMD5.equals(aContent.getContentMD5())
+                    && (metadataMD5 == null || metadataMD5.equals(aContent.getMetadataMD5()));
+        }
+    }
+
     private static final int NUMBER_OF_FRAGMENTS = 5;
 
+    private static final int BULK_LOAD_PAGE_SIZE = 10000;
+
+    private static final int SUGGEST_REBUILD_PAGE_SIZE = 100;
+
     private final Configuration configuration;
     private final PreviewProcessor previewProcessor;
     private final SolrEmbedded solrEmbedded;
     private final SolrClient solrClient;
-
-    public LuceneIndexHandler(final Configuration aConfiguration, final PreviewProcessor aPreviewProcessor) throws IOException {
+    private final BatchingIndexWriter indexWriter;
+    private final FileExistenceVerifier existenceVerifier;
+    private final PhraseSuggestIndex phraseSuggestIndex;
+    private volatile LastModifiedMap crawlState;
+
+    /**
+     * @param aMissingFileHandler is told about search hits whose file does not exist anymore
+     */
+    public LuceneIndexHandler(final Configuration aConfiguration, final PreviewProcessor aPreviewProcessor,
+            final Consumer<String> aMissingFileHandler) throws IOException {
         previewProcessor = aPreviewProcessor;
         configuration = aConfiguration;
 
@@ -61,26 +108,244 @@ class LuceneIndexHandler {
 
         solrEmbedded = new SolrEmbedded(new SolrEmbedded.Config(theIndexDirectory));
         solrClient = solrEmbedded.solrClient();
+        indexWriter = new BatchingIndexWriter(solrClient);
+        existenceVerifier = new FileExistenceVerifier(aMissingFileHandler);
+
+        phraseSuggestIndex = new PhraseSuggestIndex(new File(aConfiguration.getConfigDirectory(), "suggest"),
+                aConfiguration.getMaxSuggestionPhrasesPerDocument());
+        if (phraseSuggestIndex.isEmpty() && solrEmbedded.numberOfDocuments() > 0) {
+            // Index was created without phrase suggestions, so they are built in the background
+            final Thread theRebuildThread = new Thread(this::rebuildPhraseSuggestions, "PhraseSuggestRebuild");
+            theRebuildThread.setDaemon(true);
+            theRebuildThread.start();
+        } else {
+            phraseSuggestIndex.setReady(true);
+        }
+    }
+
+    public String getIndexId() {
+        return solrEmbedded.indexId();
     }
 
     public void crawlingStarts() throws IOException {
+        // Load the modification state of all indexed documents once,
+        // so the crawler does not need to query the index for every file
+        final long theStartTime = System.currentTimeMillis();
+        indexWriter.flush();
+        try {
+            solrClient.commit(true, true, true);
+        } catch (final SolrServerException e) {
+            throw new IOException(e);
+        }
+        final LastModifiedMap theState = new LastModifiedMap((int) Math.min(Integer.MAX_VALUE / 4, solrEmbedded.numberOfDocuments()));
+        for (final Configuration.CrawlLocation theLocation : configuration.getCrawlLocations()) {
+            loadModificationState(theLocation.getId(), theState);
+        }
+        crawlState = theState;
+        LOGGER.info("Loaded modification state of " + theState.size() + " documents in " + (System.currentTimeMillis() - theStartTime) + "ms");
+    }
+
+    public void crawlingFinished() {
+        crawlState = null;
+    }
+
+    /**
+     * Remembers that the current crawl found the file of a document. This is only kept in the crawl state,
+     * so unchanged files cost no index update. Returns false if the document is not in the index, so it
+     * has to be indexed again.
+     */
+    public boolean markAsSeen(final String aFileName) {
+        final LastModifiedMap theCrawlState = crawlState;
+        return theCrawlState == null || theCrawlState.markAsSeen(aFileName);
+    }
+
+    /**
+     * Records that the file was modified without changing the indexed document. The callback runs once
+     * the update was written, and not at all if it failed.
+     */
+    public void markAsUnchanged(final String aFileName, final long aLastModified, final Runnable aOnIndexed) {
+        // Only docValues fields are changed, so Solr can do this in place instead of indexing the document again
+        final SolrInputDocument theDocument = new SolrInputDocument();
+        theDocument.setField(IndexFields.UNIQUEID, aFileName);
+        theDocument.setField(IndexFields.VERIFIEDLASTMODIFIED, Collections.singletonMap("set", aLastModified));
+        indexWriter.add(theDocument, () -> {
+            indexed(aFileName, aLastModified);
+            aOnIndexed.run();
+        });
+    }
+
+    private void indexed(final String aFileName, final long aLastModified) {
+        final LastModifiedMap theCrawlState = crawlState;
+        if (theCrawlState != null) {
+            theCrawlState.put(aFileName, aLastModified);
+            theCrawlState.markAsSeen(aFileName);
+        }
+    }
+
+    /**
+     * Returns null if the file is not indexed.
+     */
+    public IndexedDocument indexedDocumentFor(final String aFileName) throws IOException {
+        final SolrQuery theQuery = new SolrQuery(IndexFields.UNIQUEID + ":" + ClientUtils.escapeQueryChars(aFileName));
+        theQuery.setFields(IndexFields.FINGERPRINT, IndexFields.CONTENTMD5, IndexFields.METADATAMD5, IndexFields.FILESIZE);
+        try {
+            final QueryResponse theResponse = solrClient.query(theQuery);
+            if (theResponse.getResults() == null || theResponse.getResults().isEmpty()) {
+                return null;
+            }
+            final SolrDocument theDocument = theResponse.getResults().get(0);
+            return new IndexedDocument((String) theDocument.getFieldValue(IndexFields.FINGERPRINT),
+                    (String) theDocument.getFieldValue(IndexFields.CONTENTMD5),
+                    (String) theDocument.getFieldValue(IndexFields.METADATAMD5),
+                    Long.parseLong((String) theDocument.getFieldValue(IndexFields.FILESIZE)));
+        } catch (final SolrServerException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * The modification time the indexed content was last verified for, which is newer than
+     * the one it was extracted from if the file was touched without changing it.
+     */
+    private static long lastModifiedOf(final SolrDocument aDocument) {
+        final Object theVerified = aDocument.getFieldValue(IndexFields.VERIFIEDLASTMODIFIED);
+        if (theVerified != null) {
+            return ((Number) theVerified).longValue();
+        }
+        return Long.valueOf((String) aDocument.getFieldValue(IndexFields.LASTMODIFIED));
     }
 
-    public void addToIndex(final String aLocationId, final Content aContent) throws IOException {
+    /**
+     * Removes all documents of a location whose files were not found by the current crawl
+     * and returns their ids. Documents at or below the excluded paths are kept.
+     */
+    public List<String> removeUnseenDocuments(final String aLocationId, final Set<Path> aExcludedPaths) throws IOException {
+        final LastModifiedMap theCrawlState = crawlState;
+        final List<String> theResult = new ArrayList<>();
+        if (theCrawlState == null) {
+            return theResult;
+        }
+        indexWriter.flush();
+        try {
+            solrClient.commit(true, true, true);
+
+            // The ids are needed to keep the crawl state and the manifests in sync
+            final SolrQuery theQuery = new SolrQuery("*:*");
+            theQuery.addFilterQuery(IndexFields.LOCATIONID + ":" + ClientUtils.escapeQueryChars(aLocationId));
+            theQuery.setFields(IndexFields.UNIQUEID);
+            theQuery.setRows(BULK_LOAD_PAGE_SIZE);
+            theQuery.setSort(IndexFields.UNIQUEID, SolrQuery.ORDER.asc);
+            String theCursorMark = CursorMarkParams.CURSOR_MARK_START;
+            while (true) {
+                theQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, theCursorMark);
+                final QueryResponse theResponse = solrClient.query(theQuery);
+                for (final SolrDocument theDocument : theResponse.getResults()) {
+                    final String theFileName = (String) theDocument.getFieldValue(IndexFields.UNIQUEID);
+                    // Documents added after the crawl started are not in the crawl state and are kept
+                    if (theCrawlState.isUnseen(theFileName) && !DirectoryTreeWalker.isBelowAny(theFileName, aExcludedPaths)) {
+                        theResult.add(theFileName);
+                    }
+                }
+                final String theNextCursorMark = theResponse.getNextCursorMark();
+                if (theCursorMark.equals(theNextCursorMark)) {
+                    break;
+                }
+                theCursorMark = theNextCursorMark;
+            }
+
+            if (!theResult.isEmpty()) {
+                solrClient.deleteById(theResult);
+            }
+            for (final String theFileName : theResult) {
+                phraseSuggestIndex.remove(theFileName);
+            }
+        } catch (final SolrServerException e) {
+            throw new IOException(e);
+        }
+
+        theResult.forEach(theCrawlState::remove);
+        LOGGER.info("Removed " + theResult.size() + " documents of location " + aLocationId + " not found by the crawler");
+        return theResult;
+    }
+
+    private void loadModificationState(final String aLocationId, final LastModifiedMap aState) throws IOException {
+        final SolrQuery theQuery = new SolrQuery("*:*");
+        theQuery.addFilterQuery(IndexFields.LOCATIONID + ":" + ClientUtils.escapeQueryChars(aLocationId));
+        theQuery.setFields(IndexFields.UNIQUEID, IndexFields.LASTMODIFIED, IndexFields.VERIFIEDLASTMODIFIED);
+        theQuery.setRows(BULK_LOAD_PAGE_SIZE);
+        theQuery.setSort(IndexFields.UNIQUEID, SolrQuery.ORDER.asc);
+
+        String theCursorMark = CursorMarkParams.CURSOR_MARK_START;
+        try {
+            while (true) {
+                theQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, theCursorMark);
+                final QueryResponse theResponse = solrClient.query(theQuery);
+                for (final SolrDocument theDocument : theResponse.getResults()) {
+                    aState.put((String) theDocument.getFieldValue(IndexFields.UNIQUEID), lastModifiedOf(theDocument));
+                }
+                final String theNextCursorMark = theResponse.getNextCursorMark();
+                if (theCursorMark.equals(theNextCursorMark)) {
+                    return;
+                }
+                theCursorMark = theNextCursorMark;
+            }
+        } catch (final SolrServerException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void rebuildPhraseSuggestions() {
+        final long theStartTime = System.currentTimeMillis();
+        final SolrQuery theQuery = new SolrQuery("*:*");
+        theQuery.setFields(IndexFields.UNIQUEID, IndexFields.CONTENT);
+        theQuery.setRows(SUGGEST_REBUILD_PAGE_SIZE);
+        theQuery.setSort(IndexFields.UNIQUEID, SolrQuery.ORDER.asc);
+
+        String theCursorMark = CursorMarkParams.CURSOR_MARK_START;
+        try {
+            while (true) {
+                theQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, theCursorMark);
+                final QueryResponse theResponse = solrClient.query(theQuery);
+                for (final SolrDocument theDocument : theResponse.getResults()) {
+                    final String theContent = (String) theDocument.getFirstValue(IndexFields.CONTENT);
+                    if (theContent != null) {
+                        phraseSuggestIndex.add((String) theDocument.getFieldValue(IndexFields.UNIQUEID), theContent);
+                    }
+                }
+                final String theNextCursorMark = theResponse.getNextCursorMark();
+                if (theCursorMark.equals(theNextCursorMark)) {
+                    break;
+                }
+                theCursorMark = theNextCursorMark;
+            }
+            phraseSuggestIndex.setReady(true);
+            LOGGER.info("Built phrase suggestions in " + (System.currentTimeMillis() - theStartTime) + "ms");
+        } catch (final Exception e) {
+            LOGGER.error("Error building phrase suggestions", e);
+        }
+    }
+
+    /**
+     * The callback runs once the document was written, and not at all if writing it failed.
+     */
+    public void addToIndex(final String aLocationId, final Content aContent, final Runnable aOnIndexed) throws IOException {
 
         final SupportedLanguage theLanguage = aContent.getLanguage();
 
         final SolrInputDocument theDocument = new SolrInputDocument();
         theDocument.setField(IndexFields.UNIQUEID, aContent.getFileName());
         theDocument.setField(IndexFields.LOCATIONID, aLocationId);
-        theDocument.setField(IndexFields.CONTENTMD5, DigestUtils.md5Hex(aContent.getFileContent()));
+        theDocument.setField(IndexFields.CONTENTMD5, aContent.getContentMD5());
+        theDocument.setField(IndexFields.METADATAMD5, aContent.getMetadataMD5());
+        if (aContent.getFingerprint() != null) {
+            theDocument.setField(IndexFields.FINGERPRINT, aContent.getFingerprint());
+        }
         theDocument.setField(IndexFields.LOCATIONID, aLocationId);
         theDocument.setField(IndexFields.FILESIZE, Long.toString(aContent.getFileSize()));
         theDocument.setField(IndexFields.LASTMODIFIED, Long.toString(aContent.getLastModified()));
+        theDocument.setField(IndexFields.VERIFIEDLASTMODIFIED, aContent.getLastModified());
         theDocument.setField(IndexFields.LANGUAGE, theLanguage.name());
 
-        final StringBuilder theContentAsString = new StringBuilder(aContent.getFileContent());
-
         aContent.getMetadata().forEach(theEntry -> {
             if (!StringUtils.isEmpty(theEntry.key)) {
                 final Object theValue = theEntry.value;
@@ -127,24 +392,42 @@ class LuceneIndexHandler {
             }
         });
 
-        theDocument.setField(IndexFields.CONTENT, theContentAsString.toString());
+        theDocument.setField(IndexFields.CONTENT, aContent.getFileContent());
+
+        indexWriter.add(theDocument, () -> {
+            indexed(aContent.getFileName(), aContent.getLastModified());
+            aOnIndexed.run();
+        });
 
         try {
-            solrClient.add(theDocument);
+            phraseSuggestIndex.add(aContent.getFileName(), aContent.getFileContent());
         } catch (final Exception e) {
-            throw new IOException(e);
+            LOGGER.error("Error updating phrase suggestions for " + aContent.getFileName(), e);
         }
     }
 
     public void removeFromIndex(final String aFileName) throws IOException {
-        try {
-            solrClient.deleteById(aFileName);
-        } catch (final Exception e) {
-            throw new IOException(e);
+        indexWriter.deleteById(aFileName);
+        phraseSuggestIndex.remove(aFileName);
+
+        final LastModifiedMap theCrawlState = crawlState;
+        if (theCrawlState != null) {
+            theCrawlState.remove(aFileName);
         }
     }
 
     public void shutdown() {
+        existenceVerifier.shutdown();
+        try {
+            phraseSuggestIndex.shutdown();
+        } catch (final Exception e) {
+            LOGGER.error("Error while closing phrase suggestions", e);
+        }
+        try {
+            indexWriter.shutdown();
+        } catch (final Exception e) {
+            LOGGER.error("Error while writing pending index updates", e);
+        }
         try {
             solrEmbedded.shutdown();
         } catch (final Exception e) {
@@ -154,8 +437,18 @@ class LuceneIndexHandler {
 
     public UpdateCheckResult checkIfModified(final String aFilename, final long aLastModified) throws IOException {
 
+        final LastModifiedMap theCrawlState = crawlState;
+        if (theCrawlState != null) {
+            final long theStoredLastModified = theCrawlState.get(aFilename);
+            if (theStoredLastModified == aLastModified) {
+                return UpdateCheckResult.UNMODIFIED;
+            }
+            return UpdateCheckResult.UPDATED;
+        }
+
         final Map<String, Object> theParams = new HashMap<>();
         theParams.put("q", IndexFields.UNIQUEID + ":" + ClientUtils.escapeQueryChars(aFilename));
+        theParams.put("fl", IndexFields.LASTMODIFIED + "," + IndexFields.VERIFIEDLASTMODIFIED);
 
         try {
             final QueryResponse theQueryResponse = solrClient.query(new SearchMapParams(theParams));
@@ -165,7 +458,7 @@ class LuceneIndexHandler {
             }
             final SolrDocument theDocument = theQueryResponse.getResults().get(0);
 
-            final long theStoredLastModified = Long.valueOf((String) theDocument.getFieldValue(IndexFields.LASTMODIFIED));
+            final long theStoredLastModified = lastModifiedOf(theDocument);
             if (theStoredLastModified != aLastModified) {
                 return UpdateCheckResult.UPDATED;
             }
@@ -184,16 +477,6 @@ class LuceneIndexHandler {
         }
     }
 
-    private long indexSize() throws IOException, SolrServerException {
-        final SolrQuery q = new SolrQuery("*:*");
-        q.setRows(0);  // don't actually request any data
-        final QueryResponse theResponse = solrClient.query(q);
-        if (theResponse.getResults() != null) {
-            return theResponse.getResults().getNumFound();
-        }
-        return 0;
-    }
-
     public QueryResult performQuery(final String aQueryString, final String aBacklink, final String aBasePath, final Configuration aConfiguration, final Map<String, String> aDrilldownFields) throws IOException {
 
         final Map<String, Object> theParams = new HashMap<>();
@@ -235,7 +518,7 @@ class LuceneIndexHandler {
                     final SolrDocument theSolrDocument = theQueryResponse.getResults().get(i);
 
                     final String theFileName = (String) theSolrDocument.getFieldValue(IndexFields.UNIQUEID);
-                    final long theStoredLastModified = Long.valueOf((String) theSolrDocument.getFieldValue(IndexFields.LASTMODIFIED));
+                    final long theStoredLastModified = lastModifiedOf(theSolrDocument);
 
                     final int theNormalizedScore = (int) (
                             ((float) theSolrDocument.getFieldValue("score")) / theQueryResponse.getResults().getMaxScore() * 5);
@@ -256,9 +539,11 @@ class LuceneIndexHandler {
                         }
                     }
 
-                    final File theFileOnDisk = new File(theFileName);
-                    if (theFileOnDisk.exists()) {
+                    // Hits are shown optimistically, their files are checked in the background
+                    if (!existenceVerifier.isKnownMissing(theFileName)) {
+                        existenceVerifier.verify(theFileName);
 
+                        final File theFileOnDisk = new File(theFileName);
                         final boolean thePreviewAvailable = previewProcessor.previewAvailableFor(theFileOnDisk);
 
                         final QueryResultDocument theDocument = new QueryResultDocument(i, theFileName, theHighlight.toString().trim(),
@@ -275,16 +560,11 @@ class LuceneIndexHandler {
                         }
 
                         theDocuments.add(theDocument);
-
-                    } else {
-
-                        // Document can be deleted, as it is no longer on the hard drive
-                        solrClient.deleteById(theFileName);
                     }
                 }
             }
 
-            final long theIndexSize = indexSize();
+            final long theIndexSize = solrEmbedded.numberOfDocuments();
 
             final long theDuration = System.currentTimeMillis() - theStartTime;
 
@@ -323,6 +603,12 @@ class LuceneIndexHandler {
 
     public Suggestion[] findSuggestionTermsFor(final String aTerm) throws IOException {
 
+        if (phraseSuggestIndex.isReady()) {
+            final List<Suggestion> theSuggestions = phraseSuggestIndex.suggest(aTerm, configuration.getNumberOfSuggestions(),
+                    configuration.getSuggestionSlop(), configuration.isSuggestionInOrder());
+            return theSuggestions.toArray(new Suggestion[theSuggestions.size()]);
+        }
+
         final Map<String, Object> theParams = new HashMap<>();
         theParams.put("fxsuggest.enabled", "true");
         theParams.put("fxsuggest.q", aTerm);
@@ -0,0 +1,367 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Suggests search phrases from short phrases of the indexed documents. The phrases are extracted
+ * when a document is indexed, so a lookup is only a prefix search in a separate index.
+ *
+ * The index is committed independently of the search index. If it was not closed cleanly, it may
+ * not match the search index anymore, so it is cleared on startup and has to be built again.
+ */
+class PhraseSuggestIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(PhraseSuggestIndex.class);
+
+    private static final int MAX_WORDS_PER_PHRASE = 8;
+    private static final int MIN_WORDS_PER_PHRASE = 2;
+    private static final int MAX_WORD_LENGTH = 40;
+    private static final long REFRESH_INTERVAL_MILLIS = 1000;
+    private static final long COMMIT_INTERVAL_MILLIS = 30000;
+
+    private static final Pattern SENTENCE_SEPARATOR = Pattern.compile("[.!?;:\\r\\n\\u2022]+");
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("\\s+");
+    private static final Pattern NON_WORD_CHARACTERS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final String QUERY_SEPARATORS = " ,:;?!.";
+
+    private static final BytesRef OPEN_MARKER = new BytesRef("#open");
+    private static final String CLOSED_CLEANLY_FILE = "closed.cleanly";
+    // Changed with the way phrases are extracted from documents
+    private static final String PHRASE_FORMAT = "2";
+
+    private static class DocumentAwareSuggester extends AnalyzingInfixSuggester {
+
+        private DocumentAwareSuggester(final File aDirectory) throws IOException {
+            super(FSDirectory.open(aDirectory.toPath()), new StandardAnalyzer(CharArraySet.EMPTY_SET),
+                    new StandardAnalyzer(CharArraySet.EMPTY_SET), DEFAULT_MIN_PREFIX_CHARS, false, true, false);
+        }
+
+        private void ensureWriter() throws IOException {
+            if (writer == null) {
+                // The writer is only opened by an update, so we use a marker
+                update(OPEN_MARKER, Collections.singleton(OPEN_MARKER), 0, null);
+                writer.deleteDocuments(new Term(CONTEXTS_FIELD_NAME, OPEN_MARKER));
+            }
+        }
+
+        private void deleteDocument(final BytesRef aDocumentId) throws IOException {
+            ensureWriter();
+            // Every phrase has the id of its document as context
+            writer.deleteDocuments(new Term(CONTEXTS_FIELD_NAME, aDocumentId));
+        }
+
+        private void deleteAll() throws IOException {
+            ensureWriter();
+            writer.deleteAll();
+            commit();
+            refresh();
+        }
+    }
+
+    private final File closedCleanlyFile;
+    private final int maxPhrasesPerDocument;
+    private final DocumentAwareSuggester suggester;
+    private final ScheduledExecutorService refreshTimer;
+    private volatile boolean ready;
+    private boolean changed;
+    private boolean uncommitted;
+    private long lastCommit;
+
+    /**
+     * @param aMaxPhrasesPerDocument the maximum number of distinct phrases taken from a document, 0 means no limit
+     */
+    public PhraseSuggestIndex(final File aDirectory, final int aMaxPhrasesPerDocument) throws IOException {
+        maxPhrasesPerDocument = aMaxPhrasesPerDocument;
+        aDirectory.mkdirs();
+        suggester = new DocumentAwareSuggester(aDirectory);
+        // Removed while the index is open, so it is only there after a clean shutdown. It holds the
+        // phrase format, so phrases of an older format are built again as well.
+        closedCleanlyFile = new File(aDirectory, CLOSED_CLEANLY_FILE);
+        final boolean theClosedCleanly = closedCleanlyFile.exists()
+                && PHRASE_FORMAT.equals(new String(Files.readAllBytes(closedCleanlyFile.toPath()), StandardCharsets.UTF_8));
+        Files.deleteIfExists(closedCleanlyFile.toPath());
+        if (!theClosedCleanly && suggester.getCount() > 0) {
+            LOGGER.info("Phrase suggestions were not closed cleanly or have an older format, they are built again");
+            suggester.deleteAll();
+        }
+        ready = suggester.getCount() > 0;
+        lastCommit = System.currentTimeMillis();
+        refreshTimer = Executors.newSingleThreadScheduledExecutor(aRunnable -> {
+            final Thread theThread = new Thread(aRunnable, "PhraseSuggestRefresher");
+            theThread.setDaemon(true);
+            return theThread;
+        });
+        refreshTimer.scheduleWithFixedDelay(() -> {
+            try {
+                refreshIfChanged();
+            } catch (final Exception e) {
+                LOGGER.error("Error refreshing phrase suggestions", e);
+            }
+        }, REFRESH_INTERVAL_MILLIS, REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * True if the index contains phrases and can replace the span based suggester.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void setReady(final boolean aReady) {
+        ready = aReady;
+    }
+
+    public boolean isEmpty() throws IOException {
+        return suggester.getCount() == 0;
+    }
+
+    public synchronized void add(final String aDocumentId, final String aContent) throws IOException {
+        final BytesRef theDocumentId = new BytesRef(aDocumentId);
+        suggester.deleteDocument(theDocumentId);
+
+        final Set<BytesRef> theContexts = Collections.singleton(theDocumentId);
+        try {
+            phrasesOf(aContent, maxPhrasesPerDocument, aPhrase -> {
+                try {
+                    suggester.add(new BytesRef(aPhrase), theContexts, 1, null);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        changed = true;
+        uncommitted = true;
+    }
+
+    public synchronized void remove(final String aDocumentId) throws IOException {
+        suggester.deleteDocument(new BytesRef(aDocumentId));
+        changed = true;
+        uncommitted = true;
+    }
+
+    /**
+     * Passes overlapping shingles of the sentences to the consumer, one starting at every word. Every sequence
+     * of up to MAX_WORDS_PER_PHRASE words of a sentence is part of one of them, so it can be suggested.
+     *
+     * @param aMaxPhrases the maximum number of distinct phrases, 0 means no limit
+     */
+    static void phrasesOf(final String aContent, final int aMaxPhrases, final Consumer<String> aConsumer) {
+        // Only the hashes are kept, as large documents have hundreds of thousands of phrases
+        final Set<Long> theSeen = new HashSet<>();
+        final Matcher theSeparators = SENTENCE_SEPARATOR.matcher(aContent);
+        final List<String> theWords = new ArrayList<>();
+        int theSentenceStart = 0;
+        while (theSentenceStart < aContent.length()) {
+            final boolean theFound = theSeparators.find();
+            final String theSentence = aContent.substring(theSentenceStart, theFound ? theSeparators.start() : aContent.length()).trim();
+            theSentenceStart = theFound ? theSeparators.end() : aContent.length();
+            theWords.clear();
+            for (final String theWord : WORD_SEPARATOR.split(theSentence)) {
+                // Very long words are most likely encoded data and no text, so they end a sentence
+                if (theWord.length() > MAX_WORD_LENGTH) {
+                    if (!shinglesOf(theWords, aMaxPhrases, theSeen, aConsumer)) {
+                        return;
+                    }
+                    theWords.clear();
+                } else if (!theWord.isEmpty()) {
+                    theWords.add(theWord);
+                }
+            }
+            if (!shinglesOf(theWords, aMaxPhrases, theSeen, aConsumer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns false once the maximum number of phrases was reached.
+     */
+    private static boolean shinglesOf(final List<String> aWords, final int aMaxPhrases, final Set<Long> aSeen, final Consumer<String> aConsumer) {
+        if (aWords.size() < MIN_WORDS_PER_PHRASE) {
+            return true;
+        }
+        // Shorter shingles at the end of the sentence are part of the last one of full length
+        final int theLength = Math.min(MAX_WORDS_PER_PHRASE, aWords.size());
+        for (int theStart = 0; theStart + theLength <= aWords.size(); theStart++) {
+            final String thePhrase = String.join(" ", aWords.subList(theStart, theStart + theLength));
+            if (aSeen.add(LastModifiedMap.hash(thePhrase))) {
+                aConsumer.accept(thePhrase);
+                if (aMaxPhrases > 0 && aSeen.size() >= aMaxPhrases) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the words of a phrase like the span based suggester does, the last token is a prefix. The slop is
+     * the number of other words between the matched ones.
+     */
+    static boolean isNear(final String aPhrase, final List<String> aTokens, final int aSlop, final boolean aInOrder) {
+        final List<String> theTokens = new ArrayList<>();
+        for (final String theToken : aTokens) {
+            for (final String thePart : NON_WORD_CHARACTERS.split(theToken.toLowerCase())) {
+                if (!thePart.isEmpty()) {
+                    theTokens.add(thePart);
+                }
+            }
+        }
+        if (theTokens.isEmpty()) {
+            return true;
+        }
+        final String[] theWords = NON_WORD_CHARACTERS.split(aPhrase.toLowerCase());
+        return isNear(theWords, theTokens, new boolean[theWords.length], 0, Integer.MAX_VALUE, -1, aSlop, aInOrder);
+    }
+
+    private static boolean isNear(final String[] aWords, final List<String> aTokens, final boolean[] aUsed, final int aToken,
+            final int aMinPosition, final int aMaxPosition, final int aSlop, final boolean aInOrder) {
+        if (aToken == aTokens.size()) {
+            return true;
+        }
+        final String theToken = aTokens.get(aToken);
+        final boolean thePrefix = aToken == aTokens.size() - 1;
+        for (int i = aInOrder ? aMaxPosition + 1 : 0; i < aWords.length; i++) {
+            if (aUsed[i] || !(thePrefix ? aWords[i].startsWith(theToken) : aWords[i].equals(theToken))) {
+                continue;
+            }
+            final int theMin = Math.min(aMinPosition, i);
+            final int theMax = Math.max(aMaxPosition, i);
+            // The words in between can only get more
+            if (theMax - theMin + 1 - aTokens.size() > aSlop) {
+                continue;
+            }
+            aUsed[i] = true;
+            final boolean theNear = isNear(aWords, aTokens, aUsed, aToken + 1, theMin, theMax, aSlop, aInOrder);
+            aUsed[i] = false;
+            if (theNear) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<Suggestion> suggest(final String aPhrase, final int aNumberOfSuggestions, final int aSlop, final boolean aInOrder) throws IOException {
+        final List<String> theTokens = new ArrayList<>();
+        final StringBuilder theKey = new StringBuilder();
+        for (final String theToken : StringUtils.split(aPhrase, QUERY_SEPARATORS)) {
+            if (!theToken.startsWith("-")) {
+                theTokens.add(theToken.toLowerCase());
+                if (theKey.length() > 0) {
+                    theKey.append(' ');
+                }
+                theKey.append(theToken);
+            }
+        }
+
+        final List<Suggestion> theResult = new ArrayList<>();
+        if (theTokens.isEmpty() || isEmpty()) {
+            return theResult;
+        }
+
+        // The same phrase can be part of many documents, so we ask for more and remove duplicates
+        final Set<String> theValues = new LinkedHashSet<>();
+        for (final Lookup.LookupResult theLookupResult : suggester.lookup(theKey, (Set<BytesRef>) null, aNumberOfSuggestions * 4, true, false)) {
+            String theValue = theLookupResult.key.toString();
+            if (!isNear(theValue, theTokens, aSlop, aInOrder)) {
+                continue;
+            }
+            final int p = theValue.toLowerCase().indexOf(theTokens.get(0));
+            if (p > 0) {
+                theValue = theValue.substring(p).trim();
+            }
+            addUnlessPartOfAnother(theValues, theValue);
+            if (theValues.size() >= aNumberOfSuggestions) {
+                break;
+            }
+        }
+
+        // The highlighter uses the tokens as patterns
+        final List<String> theQuotedTokens = new ArrayList<>();
+        for (final String theToken : theTokens) {
+            theQuotedTokens.add(theToken.replaceAll("([^\\p{L}\\p{N}])", "\\\\$1"));
+        }
+        for (final String theValue : theValues) {
+            theResult.add(new Suggestion(SearchPhraseSuggester.highlight(theValue, theQuotedTokens), theValue));
+        }
+        return theResult;
+    }
+
+    /**
+     * Overlapping phrases of the same sentence start alike once they are cut at the first token, so only
+     * the longest of them is kept.
+     */
+    private static void addUnlessPartOfAnother(final Set<String> aValues, final String aValue) {
+        for (final String theValue : aValues) {
+            if (theValue.startsWith(aValue)) {
+                return;
+            }
+        }
+        aValues.removeIf(aExisting -> aValue.startsWith(aExisting));
+        aValues.add(aValue);
+    }
+
+    private synchronized void refreshIfChanged() throws IOException {
+        if (changed) {
+            suggester.refresh();
+            changed = false;
+        }
+        if (uncommitted && System.currentTimeMillis() - lastCommit > COMMIT_INTERVAL_MILLIS) {
+            suggester.commit();
+            uncommitted = false;
+            lastCommit = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized void shutdown() throws IOException {
+        refreshTimer.shutdownNow();
+        if (uncommitted) {
+            suggester.commit();
+        }
+        suggester.close();
+        // Partially built suggestions are built again on the next start
+        if (ready) {
+            Files.write(closedCleanlyFile.toPath(), PHRASE_FORMAT.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
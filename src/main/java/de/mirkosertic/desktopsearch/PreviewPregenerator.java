@@ -0,0 +1,104 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Renders thumbnails of newly indexed files into the thumbnail cache on a low priority thread.
+ * Rendering only happens while the backend is idle, and only for a fraction of the time.
+ */
+class PreviewPregenerator {
+
+    private static final Logger LOGGER = Logger.getLogger(PreviewPregenerator.class);
+
+    private static final int MAX_QUEUED_FILES = 1000;
+    private static final double DEFAULT_TIME_BUDGET = 0.25;
+    private static final long BUSY_WAIT_MILLIS = 1000;
+    private static final long SHUTDOWN_WAIT_MILLIS = 2000;
+
+    private final ThumbnailCache thumbnailCache;
+    private final PreviewProcessor previewProcessor;
+    private final BooleanSupplier busy;
+    private final double timeBudget;
+    private final BlockingQueue<File> queue;
+    private final Thread worker;
+
+    public PreviewPregenerator(final ThumbnailCache aThumbnailCache, final PreviewProcessor aPreviewProcessor, final BooleanSupplier aBusy) {
+        this(aThumbnailCache, aPreviewProcessor, aBusy, DEFAULT_TIME_BUDGET);
+    }
+
+    public PreviewPregenerator(final ThumbnailCache aThumbnailCache, final PreviewProcessor aPreviewProcessor, final BooleanSupplier aBusy,
+            final double aTimeBudget) {
+        thumbnailCache = aThumbnailCache;
+        previewProcessor = aPreviewProcessor;
+        busy = aBusy;
+        timeBudget = aTimeBudget;
+        queue = new LinkedBlockingQueue<>(MAX_QUEUED_FILES);
+        worker = new Thread(this::run, "PreviewPregenerator");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    public void schedule(final File aFile) {
+        if (previewProcessor.previewAvailableFor(aFile) && !queue.offer(aFile)) {
+            // The preview is still rendered on demand
+            LOGGER.debug("Preview queue is full, skipping " + aFile);
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final File theFile = queue.take();
+                while (busy.getAsBoolean()) {
+                    Thread.sleep(BUSY_WAIT_MILLIS);
+                }
+                if (!theFile.exists() || thumbnailCache.contains(theFile, ThumbnailCache.DEFAULT_FORMAT)) {
+                    continue;
+                }
+
+                final long theStartTime = System.currentTimeMillis();
+                try {
+                    thumbnailCache.get(theFile, ThumbnailCache.DEFAULT_FORMAT);
+                } catch (final Exception e) {
+                    LOGGER.warn("Error rendering preview of " + theFile, e);
+                }
+                final long theDuration = System.currentTimeMillis() - theStartTime;
+
+                // Pause long enough to only use the given share of the time
+                Thread.sleep((long) (theDuration * (1 - timeBudget) / timeBudget));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops rendering and gives a preview that is currently rendered some time to be written to the cache.
+     */
+    public void shutdown() {
+        worker.interrupt();
+        try {
+            worker.join(SHUTDOWN_WAIT_MILLIS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
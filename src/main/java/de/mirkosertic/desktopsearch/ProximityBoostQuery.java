@@ -0,0 +1,256 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.search.spans.SpanCollector;
+import org.apache.lucene.search.spans.SpanMultiTermQueryWrapper;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanScorer;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.lucene.search.spans.SpanWeight;
+import org.apache.lucene.search.spans.Spans;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Scores the proximity of the query terms in any order. This gives the same result as one
+ * unordered SpanNearQuery for every slop from 0 to maxSlop, each boosted with maxBoost - slop,
+ * but the positions of every matching document are only iterated once.
+ *
+ * Every clause has to match a single term, like the term and multi term clauses built by QueryParser.
+ */
+class ProximityBoostQuery extends Query {
+
+    private final SpanNearQuery nearQuery;
+    private final int maxSlop;
+    private final int numberOfClauses;
+    private final float maxBoost;
+
+    public ProximityBoostQuery(final SpanQuery[] aClauses, final int aMaxSlop, final float aMaxBoost) {
+        this(new SpanNearQuery(aClauses, aMaxSlop, false), aMaxBoost);
+        for (final SpanQuery theClause : aClauses) {
+            if (!(theClause instanceof SpanTermQuery) && !(theClause instanceof SpanMultiTermQueryWrapper)) {
+                throw new IllegalArgumentException("Clause does not match a single term : " + theClause);
+            }
+        }
+    }
+
+    private ProximityBoostQuery(final SpanNearQuery aNearQuery, final float aMaxBoost) {
+        nearQuery = aNearQuery;
+        maxSlop = aNearQuery.getSlop();
+        numberOfClauses = aNearQuery.getClauses().length;
+        maxBoost = aMaxBoost;
+    }
+
+    @Override
+    public Query rewrite(final IndexReader aReader) throws IOException {
+        final Query theRewritten = nearQuery.rewrite(aReader);
+        if (theRewritten != nearQuery) {
+            return new ProximityBoostQuery((SpanNearQuery) theRewritten, maxBoost);
+        }
+        return this;
+    }
+
+    @Override
+    public Weight createWeight(final IndexSearcher aSearcher, final boolean aNeedsScores, final float aBoost) throws IOException {
+        return new ProximityWeight(nearQuery.createWeight(aSearcher, aNeedsScores, aBoost));
+    }
+
+    @Override
+    public String toString(final String aField) {
+        return "proximityBoost(" + nearQuery.toString(aField) + ", " + maxBoost + ")";
+    }
+
+    @Override
+    public boolean equals(final Object aOther) {
+        return sameClassAs(aOther) && nearQuery.equals(((ProximityBoostQuery) aOther).nearQuery)
+                && maxBoost == ((ProximityBoostQuery) aOther).maxBoost;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * classHash() + nearQuery.hashCode()) + Float.floatToIntBits(maxBoost);
+    }
+
+    private class ProximityWeight extends Weight {
+
+        private final SpanWeight spanWeight;
+
+        private ProximityWeight(final SpanWeight aSpanWeight) {
+            super(ProximityBoostQuery.this);
+            spanWeight = aSpanWeight;
+        }
+
+        @Override
+        public void extractTerms(final Set<Term> aTerms) {
+            spanWeight.extractTerms(aTerms);
+        }
+
+        @Override
+        public ProximityScorer scorer(final LeafReaderContext aContext) throws IOException {
+            final Spans theSpans = spanWeight.getSpans(aContext, SpanWeight.Postings.POSITIONS);
+            if (theSpans == null) {
+                return null;
+            }
+            final Similarity.SimScorer theDocScorer = spanWeight.getSimScorer(aContext);
+            return new ProximityScorer(spanWeight, new SlopCollectingSpans(theSpans, theDocScorer), theDocScorer);
+        }
+
+        @Override
+        public Explanation explain(final LeafReaderContext aContext, final int aDoc) throws IOException {
+            final ProximityScorer theScorer = scorer(aContext);
+            if (theScorer != null && theScorer.iterator().advance(aDoc) == aDoc) {
+                return Explanation.match(theScorer.score(), "proximity of " + nearQuery + ", minimal slop "
+                        + theScorer.spans.minimalSlop());
+            }
+            return Explanation.noMatch("no proximity match");
+        }
+
+        @Override
+        public boolean isCacheable(final LeafReaderContext aContext) {
+            return spanWeight.isCacheable(aContext);
+        }
+    }
+
+    private class ProximityScorer extends SpanScorer {
+
+        private final SlopCollectingSpans spans;
+
+        private ProximityScorer(final SpanWeight aWeight, final SlopCollectingSpans aSpans, final Similarity.SimScorer aDocScorer) {
+            super(aWeight, aSpans, aDocScorer);
+            spans = aSpans;
+        }
+
+        @Override
+        protected float scoreCurrentDoc() throws IOException {
+            // A match with slop s is also found by all queries with a higher slop
+            float theScore = 0;
+            float theFreq = 0;
+            for (int theSlop = 0; theSlop <= maxSlop; theSlop++) {
+                theFreq += spans.freqBySlop[theSlop];
+                if (theFreq > 0) {
+                    theScore += (maxBoost - theSlop) * docScorer.score(docID(), theFreq);
+                }
+            }
+            return theScore;
+        }
+    }
+
+    /**
+     * Records the sloppy frequency of all matches of the current document by their slop.
+     */
+    private class SlopCollectingSpans extends Spans {
+
+        private final Spans in;
+        private final Similarity.SimScorer docScorer;
+        private final float[] freqBySlop;
+
+        private SlopCollectingSpans(final Spans aSpans, final Similarity.SimScorer aDocScorer) {
+            in = aSpans;
+            docScorer = aDocScorer;
+            freqBySlop = new float[maxSlop + 1];
+        }
+
+        private int minimalSlop() {
+            for (int i = 0; i < freqBySlop.length; i++) {
+                if (freqBySlop[i] > 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        protected void doStartCurrentDoc() {
+            Arrays.fill(freqBySlop, 0);
+        }
+
+        @Override
+        protected void doCurrentSpans() throws IOException {
+            if (docScorer != null) {
+                // Every clause matched one term, so the slop is the width without them. The sloppy
+                // frequency is the one SpanScorer gets from all default similarities
+                final int theWidth = in.width();
+                final int theSlop = theWidth - numberOfClauses;
+                freqBySlop[Math.min(Math.max(theSlop, 0), maxSlop)] += 1f / (1 + theWidth);
+            }
+        }
+
+        @Override
+        public int nextStartPosition() throws IOException {
+            return in.nextStartPosition();
+        }
+
+        @Override
+        public int startPosition() {
+            return in.startPosition();
+        }
+
+        @Override
+        public int endPosition() {
+            return in.endPosition();
+        }
+
+        @Override
+        public int width() {
+            return in.width();
+        }
+
+        @Override
+        public void collect(final SpanCollector aCollector) throws IOException {
+            in.collect(aCollector);
+        }
+
+        @Override
+        public float positionsCost() {
+            return in.positionsCost();
+        }
+
+        @Override
+        public TwoPhaseIterator asTwoPhaseIterator() {
+            return in.asTwoPhaseIterator();
+        }
+
+        @Override
+        public int docID() {
+            return in.docID();
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return in.nextDoc();
+        }
+
+        @Override
+        public int advance(final int aTarget) throws IOException {
+            return in.advance(aTarget);
+        }
+
+        @Override
+        public long cost() {
+            return in.cost();
+        }
+    }
+}
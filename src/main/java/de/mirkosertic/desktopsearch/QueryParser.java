@@ -104,12 +104,10 @@ class QueryParser {
                 theResult.add(new BoostQuery(theExactMatchQuery, 61), BooleanClause.Occur.SHOULD);
 
                 // We expect a maximum edit distance of 10 between the searched terms in any order
-                // This seems to be the most useful value
+                // This seems to be the most useful value. The closer the terms, the higher the boost
                 final int theMaxEditDistance = 10;
-                for (int theSlop = 0; theSlop < theMaxEditDistance; theSlop++) {
-                    final SpanQuery theNearQuery = new SpanNearQuery(theSpans.toArray(new SpanQuery[theSpans.size()]), theSlop, false);
-                    theResult.add(new BoostQuery(theNearQuery, 50 + theMaxEditDistance - theSlop), BooleanClause.Occur.SHOULD);
-                }
+                theResult.add(new ProximityBoostQuery(theSpans.toArray(new SpanQuery[theSpans.size()]), theMaxEditDistance - 1,
+                        50 + theMaxEditDistance), BooleanClause.Occur.SHOULD);
             }
 
             // Finally, we just add simple term queries, but do not boost them
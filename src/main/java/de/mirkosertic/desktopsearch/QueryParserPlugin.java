@@ -12,6 +12,8 @@
  */
 package de.mirkosertic.desktopsearch;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.lucene.search.Query;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
@@ -23,9 +25,56 @@ import org.apache.solr.search.SyntaxError;
 
 public class QueryParserPlugin extends QParserPlugin {
 
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /**
+     * A new schema instance might come with different analyzers, so it is part of the key. It is compared
+     * by identity, entries of a replaced schema are not hit anymore and are evicted over time.
+     */
+    private static class CacheKey {
+
+        private final String queryString;
+        private final IndexSchema schema;
+
+        private CacheKey(final String aQueryString, final IndexSchema aSchema) {
+            queryString = aQueryString;
+            schema = aSchema;
+        }
+
+        @Override
+        public boolean equals(final Object aOther) {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey theOther = (CacheKey) aOther;
+            return queryString.equals(theOther.queryString) && schema == theOther.schema;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * queryString.hashCode() + System.identityHashCode(schema);
+        }
+    }
+
+    private Cache<CacheKey, Query> queryCache;
+
     @Override
     public void init(final NamedList args) {
         super.init(args);
+
+        final Object theCacheSize = args != null ? args.get("cacheSize") : null;
+        // Parsed queries are immutable, so they can be shared between requests
+        queryCache = CacheBuilder.newBuilder()
+                .maximumSize(theCacheSize != null ? Integer.parseInt(theCacheSize.toString()) : DEFAULT_CACHE_SIZE)
+                .build();
+    }
+
+    private Query parse(final String aQueryString, final IndexSchema aSchema) throws Exception {
+        return queryCache.get(new CacheKey(aQueryString, aSchema),
+                () -> new QueryParser(aSchema.getQueryAnalyzer()).parse(aQueryString, IndexFields.CONTENT));
     }
 
     @Override
@@ -34,11 +83,8 @@ public class QueryParserPlugin extends QParserPlugin {
         return new QParser(aQueryString, aLocalParams, aParams, aRequest) {
             @Override
             public Query parse() throws SyntaxError {
-                final IndexSchema theSchema = aRequest.getSchema();
-                final QueryParser theParser = new QueryParser(theSchema.getQueryAnalyzer());
                 try {
-                    final Query theQuery = theParser.parse(aQueryString, IndexFields.CONTENT);
-                    return theQuery;
+                    return QueryParserPlugin.this.parse(aQueryString, aRequest.getSchema());
                 } catch (final Exception e) {
                     throw new SyntaxError(e);
                 }
@@ -122,7 +122,7 @@ class SearchPhraseSuggester {
         return theResult;
     }
 
-    private String highlight(final String aPhrase, final List<String> aTokens) {
+    static String highlight(final String aPhrase, final List<String> aTokens) {
         String theResult = aPhrase;
         final Set<String> theTokens = aTokens.stream().map(String::toLowerCase).collect(Collectors.toSet());
 
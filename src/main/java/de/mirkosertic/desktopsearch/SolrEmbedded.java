@@ -15,11 +15,18 @@ package de.mirkosertic.desktopsearch;
 import org.apache.commons.io.IOUtils;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.core.AbstractSolrEventListener;
 import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.core.SolrEventListener;
+import org.apache.solr.search.SolrIndexSearcher;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
 
 public class SolrEmbedded {
 
@@ -34,6 +41,8 @@ public class SolrEmbedded {
 
     private final CoreContainer coreContainer;
     private final EmbeddedSolrServer embeddedSolrServer;
+    private final String indexId;
+    private volatile long numberOfDocuments;
 
     public SolrEmbedded(final Config config) throws IOException {
         // Copy all required files
@@ -51,6 +60,8 @@ public class SolrEmbedded {
         core1data.mkdirs();
         core1lang.mkdirs();
 
+        indexId = indexIdOf(core1data);
+
         // Core1
         copyResourceToFile("/solrhome/core1/core.properties", new File(core1, "core.properties"));
         copyResourceToFile("/solrhome/core1/currency.xml", new File(core1, "currency.xml"));
@@ -72,6 +83,51 @@ public class SolrEmbedded {
         coreContainer.load();
 
         embeddedSolrServer = new EmbeddedSolrServer(coreContainer, "core1");
+
+        // Keep the number of documents up to date with every new searcher,
+        // so it does not need to be queried for every search
+        try (final SolrCore theCore = coreContainer.getCore("core1")) {
+            // Extends the abstract listener, which takes care of the raw typed init
+            final SolrEventListener theListener = new AbstractSolrEventListener(theCore) {
+                @Override
+                public void postCommit() {
+                }
+
+                @Override
+                public void postSoftCommit() {
+                }
+
+                @Override
+                public void newSearcher(final SolrIndexSearcher aNewSearcher, final SolrIndexSearcher aCurrentSearcher) {
+                    numberOfDocuments = aNewSearcher.numDocs();
+                }
+            };
+            theCore.registerFirstSearcherListener(theListener);
+            theCore.registerNewSearcherListener(theListener);
+            numberOfDocuments = theCore.withSearcher(aSearcher -> (long) aSearcher.numDocs());
+        }
+    }
+
+    /**
+     * Identifies the index in the data directory. A new index gets a new id, so state kept outside of
+     * the index can detect that it belongs to an index that does not exist anymore.
+     */
+    public String indexId() {
+        return indexId;
+    }
+
+    private static String indexIdOf(final File aDataDirectory) throws IOException {
+        final File theIdFile = new File(aDataDirectory, "index.id");
+        if (theIdFile.exists()) {
+            return new String(Files.readAllBytes(theIdFile.toPath()), StandardCharsets.UTF_8).trim();
+        }
+        final String theId = UUID.randomUUID().toString();
+        Files.write(theIdFile.toPath(), theId.getBytes(StandardCharsets.UTF_8));
+        return theId;
+    }
+
+    public long numberOfDocuments() {
+        return numberOfDocuments;
     }
 
     public SolrClient solrClient() {
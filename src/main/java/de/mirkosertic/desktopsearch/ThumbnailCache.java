@@ -0,0 +1,196 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two level cache of encoded preview images. Recently used thumbnails are kept in memory,
+ * all others on disk. Entries are keyed by file name, modification time and size, so a
+ * changed file automatically gets a new thumbnail.
+ */
+class ThumbnailCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ThumbnailCache.class);
+
+    public static final long DEFAULT_MAX_MEMORY_BYTES = 32L * 1024 * 1024;
+    public static final long DEFAULT_MAX_DISK_BYTES = 256L * 1024 * 1024;
+
+    // The format requested by the search result page
+    public static final String DEFAULT_FORMAT = "jpg";
+
+    public static class Thumbnail {
+
+        private final String etag;
+        private final long lastModified;
+        private final byte[] data;
+
+        private Thumbnail(final String aETag, final long aLastModified, final byte[] aData) {
+            etag = aETag;
+            lastModified = aLastModified;
+            data = aData;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * The encoded image, or null if there is no preview for the file.
+         */
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private final PreviewProcessor previewProcessor;
+    private final File directory;
+    private final long maxDiskBytes;
+    private final AtomicLong diskBytes;
+    private final Cache<String, Thumbnail> memoryCache;
+
+    public ThumbnailCache(final PreviewProcessor aPreviewProcessor, final File aDirectory) {
+        this(aPreviewProcessor, aDirectory, DEFAULT_MAX_MEMORY_BYTES, DEFAULT_MAX_DISK_BYTES);
+    }
+
+    public ThumbnailCache(final PreviewProcessor aPreviewProcessor, final File aDirectory, final long aMaxMemoryBytes, final long aMaxDiskBytes) {
+        previewProcessor = aPreviewProcessor;
+        directory = aDirectory;
+        maxDiskBytes = aMaxDiskBytes;
+        directory.mkdirs();
+
+        long theDiskBytes = 0;
+        for (final File theFile : listCacheFiles()) {
+            theDiskBytes += theFile.length();
+        }
+        diskBytes = new AtomicLong(theDiskBytes);
+
+        memoryCache = CacheBuilder.newBuilder()
+                .maximumWeight(aMaxMemoryBytes)
+                .<String, Thumbnail>weigher((aKey, aValue) -> aValue.data != null ? aValue.data.length : 1)
+                .build();
+    }
+
+    /**
+     * The ETag of the thumbnail, which can be computed without rendering it.
+     */
+    public static String etagFor(final File aFile, final String aFormat) {
+        return "\"" + keyFor(aFile, aFormat) + "\"";
+    }
+
+    private static String keyFor(final File aFile, final String aFormat) {
+        final String theKey = aFile.getAbsolutePath() + "|" + aFile.lastModified() + "|" + aFile.length() + "|" + aFormat;
+        return Hashing.murmur3_128().hashString(theKey, StandardCharsets.UTF_8).toString();
+    }
+
+    public Thumbnail get(final File aFile, final String aFormat) throws IOException {
+        final String theKey = keyFor(aFile, aFormat);
+        try {
+            // Concurrent requests for the same thumbnail wait for the first one to compute it
+            return memoryCache.get(theKey, () -> load(theKey, aFile, aFormat));
+        } catch (final ExecutionException | UncheckedExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    public boolean contains(final File aFile, final String aFormat) {
+        final String theKey = keyFor(aFile, aFormat);
+        return memoryCache.getIfPresent(theKey) != null || fileFor(theKey, aFormat).exists();
+    }
+
+    private File fileFor(final String aKey, final String aFormat) {
+        return new File(directory, aKey + "." + aFormat);
+    }
+
+    private Thumbnail load(final String aKey, final File aFile, final String aFormat) throws IOException {
+        final String theETag = "\"" + aKey + "\"";
+        final File theCacheFile = fileFor(aKey, aFormat);
+        if (theCacheFile.exists()) {
+            final byte[] theData = Files.readAllBytes(theCacheFile.toPath());
+            // The modification time is used to find the least recently used entries
+            theCacheFile.setLastModified(System.currentTimeMillis());
+            return new Thumbnail(theETag, aFile.lastModified(), theData);
+        }
+
+        final Preview thePreview = previewProcessor.computePreviewFor(aFile);
+        if (thePreview == null) {
+            return new Thumbnail(theETag, aFile.lastModified(), null);
+        }
+
+        final ByteArrayOutputStream theStream = new ByteArrayOutputStream();
+        if (!ImageUtils.write(thePreview.getImage(), aFormat, theStream)) {
+            throw new IOException("Unsupported image format " + aFormat);
+        }
+        final byte[] theData = theStream.toByteArray();
+
+        store(theCacheFile, theData);
+
+        return new Thumbnail(theETag, aFile.lastModified(), theData);
+    }
+
+    private void store(final File aCacheFile, final byte[] aData) {
+        try {
+            final File theTempFile = new File(directory, aCacheFile.getName() + ".tmp");
+            Files.write(theTempFile.toPath(), aData);
+            Files.move(theTempFile.toPath(), aCacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (diskBytes.addAndGet(aData.length) > maxDiskBytes) {
+                evictFromDisk();
+            }
+        } catch (final IOException e) {
+            LOGGER.warn("Cannot write thumbnail " + aCacheFile, e);
+        }
+    }
+
+    private synchronized void evictFromDisk() {
+        final File[] theFiles = listCacheFiles();
+        Arrays.sort(theFiles, Comparator.comparingLong(File::lastModified));
+
+        // Evict down to 90% to not run the eviction for every new thumbnail
+        long theTotal = 0;
+        for (final File theFile : theFiles) {
+            theTotal += theFile.length();
+        }
+        final long theTarget = maxDiskBytes * 9 / 10;
+        for (int i = 0; i < theFiles.length && theTotal > theTarget; i++) {
+            final long theLength = theFiles[i].length();
+            if (theFiles[i].delete()) {
+                theTotal -= theLength;
+            }
+        }
+        diskBytes.set(theTotal);
+    }
+
+    private File[] listCacheFiles() {
+        final File[] theFiles = directory.listFiles(aFile -> aFile.isFile() && !aFile.getName().endsWith(".tmp"));
+        return theFiles != null ? theFiles : new File[0];
+    }
+}
@@ -14,7 +14,6 @@ package de.mirkosertic.desktopsearch;
 
 import org.apache.log4j.Logger;
 
-import javax.imageio.ImageIO;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -35,19 +34,18 @@ public class ThumbnailServlet extends HttpServlet {
     private static final String TYPE_PREVIEW = "preview";
 
     private final Backend backend;
-    private final PreviewProcessor previewProcessor;
+    private final ThumbnailCache thumbnailCache;
 
-    public ThumbnailServlet(final Backend aBackend, final PreviewProcessor aProcessor) {
+    public ThumbnailServlet(final Backend aBackend, final ThumbnailCache aThumbnailCache) {
         backend = aBackend;
-        previewProcessor = aProcessor;
+        thumbnailCache = aThumbnailCache;
     }
 
     @Override
     protected void doGet(final HttpServletRequest aRequest, final HttpServletResponse aResponse) throws ServletException, IOException {
 
-        aResponse.setHeader("Cache-Control", "no-cache"); //HTTP 1.1
-        aResponse.setHeader("Pragma", "no-cache"); //HTTP 1.0
-        aResponse.setDateHeader("Expires", 0);
+        // Clients have to revalidate, which is cheap because of the ETag
+        aResponse.setHeader("Cache-Control", "private, no-cache");
 
         String theFilename = aRequest.getPathInfo();
 
@@ -78,14 +76,26 @@ public class ThumbnailServlet extends HttpServlet {
                         BufferedImage.TYPE_INT_ARGB);
                 theFileIcon.paintIcon(null, theImage.getGraphics(), 0, 0);
 
-                ImageIO.write(theImage, theFileType, aResponse.getOutputStream());
+                aResponse.setContentType(ImageUtils.mimeTypeOf(theFileType));
+                ImageUtils.write(theImage, theFileType, aResponse.getOutputStream());
             }
 
             if (TYPE_PREVIEW.equals(theType)) {
-                final Preview thePreview = previewProcessor.computePreviewFor(theFileOnDisk);
-                if (thePreview != null) {
+                final String theETag = ThumbnailCache.etagFor(theFileOnDisk, theFileType);
+                if (isNotModified(aRequest, theETag, theFileOnDisk.lastModified())) {
+                    aResponse.setHeader("ETag", theETag);
+                    aResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+
+                final ThumbnailCache.Thumbnail theThumbnail = thumbnailCache.get(theFileOnDisk, theFileType);
+                if (theThumbnail.getData() != null) {
 
-                    ImageIO.write(thePreview.getImage(), theFileType, aResponse.getOutputStream());
+                    aResponse.setHeader("ETag", theThumbnail.getETag());
+                    aResponse.setDateHeader("Last-Modified", theThumbnail.getLastModified());
+                    aResponse.setContentType(ImageUtils.mimeTypeOf(theFileType));
+                    aResponse.setContentLength(theThumbnail.getData().length);
+                    aResponse.getOutputStream().write(theThumbnail.getData());
 
                 } else {
                     LOGGER.info("Nothing was found...");
@@ -97,4 +107,14 @@ public class ThumbnailServlet extends HttpServlet {
             aResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
         }
     }
-}
\ No newline at end of file
+
+    private static boolean isNotModified(final HttpServletRequest aRequest, final String aETag, final long aLastModified) {
+        final String theIfNoneMatch = aRequest.getHeader("If-None-Match");
+        if (theIfNoneMatch != null) {
+            return theIfNoneMatch.contains(aETag);
+        }
+        final long theIfModifiedSince = aRequest.getDateHeader("If-Modified-Since");
+        // HTTP dates have a precision of seconds
+        return theIfModifiedSince != -1 && aLastModified / 1000 <= theIfModifiedSince / 1000;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The number of directories that can be watched by all locations together.
+ */
+class WatchBudget {
+
+    private static final Logger LOGGER = Logger.getLogger(WatchBudget.class);
+
+    private static final int DEFAULT_LIMIT = 8192;
+    private static final File INOTIFY_LIMIT = new File("/proc/sys/fs/inotify/max_user_watches");
+
+    private final int limit;
+    private final AtomicInteger used;
+
+    public WatchBudget(final int aLimit) {
+        limit = aLimit;
+        used = new AtomicInteger();
+    }
+
+    /**
+     * Half of the inotify limit of the system, the other half is left to other applications.
+     */
+    public static WatchBudget forSystem() {
+        int theLimit = DEFAULT_LIMIT;
+        if (INOTIFY_LIMIT.exists()) {
+            try {
+                theLimit = Integer.parseInt(new String(Files.readAllBytes(INOTIFY_LIMIT.toPath()), StandardCharsets.US_ASCII).trim()) / 2;
+            } catch (final Exception e) {
+                LOGGER.warn("Cannot read " + INOTIFY_LIMIT, e);
+            }
+        }
+        LOGGER.info("Watching at most " + theLimit + " directories");
+        return new WatchBudget(theLimit);
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            final int theUsed = used.get();
+            if (theUsed >= limit) {
+                return false;
+            }
+            if (used.compareAndSet(theUsed, theUsed + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        used.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
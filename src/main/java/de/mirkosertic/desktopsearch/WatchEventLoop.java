@@ -0,0 +1,249 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes the events of a WatchService as soon as they arrive and passes them on to the handler
+ * that registered the directory. All locations on the same file system share one loop.
+ *
+ * The number of watches is limited by a budget. If it is used up, the directory with the least recent
+ * changes is not watched anymore, but polled by its handler from time to time. Handlers are expected to
+ * promote polled directories once they detect changes.
+ */
+class WatchEventLoop {
+
+    private static final Logger LOGGER = Logger.getLogger(WatchEventLoop.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 60000;
+
+    interface Handler {
+
+        void eventsReceived(Path aDirectory, List<WatchEvent<?>> aEvents);
+
+        void pollDirectories(Set<Path> aDirectories);
+    }
+
+    private final WatchService watchService;
+    private final WatchBudget budget;
+    // In access order, so the first key is the one without events for the longest time
+    private final LinkedHashMap<WatchKey, Handler> watchedDirectories;
+    private final Map<Path, WatchKey> keysByDirectory;
+    private final Map<Handler, Integer> watchesByHandler;
+    private final Map<Path, Handler> polledDirectories;
+    private final Thread thread;
+
+    public WatchEventLoop(final WatchService aWatchService, final WatchBudget aBudget) {
+        watchService = aWatchService;
+        budget = aBudget;
+        watchedDirectories = new LinkedHashMap<>(16, 0.75f, true);
+        keysByDirectory = new HashMap<>();
+        watchesByHandler = new HashMap<>();
+        polledDirectories = new HashMap<>();
+        thread = new Thread(this::run, "WatchEventLoop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Watches the directory, or polls it if no watch is available. A directory that is already watched or
+     * polled stays as it is.
+     *
+     * @return true if the directory is watched
+     */
+    public synchronized boolean register(final Path aDirectory, final Handler aHandler) {
+        final WatchKey theWatchedKey = keysByDirectory.get(aDirectory);
+        if (theWatchedKey != null) {
+            final Handler thePrevious = watchedDirectories.get(theWatchedKey);
+            if (thePrevious != aHandler) {
+                watchedDirectories.put(theWatchedKey, aHandler);
+                watchesByHandler.merge(thePrevious, -1, Integer::sum);
+                watchesByHandler.merge(aHandler, 1, Integer::sum);
+            }
+            return true;
+        }
+        if (polledDirectories.containsKey(aDirectory)) {
+            polledDirectories.put(aDirectory, aHandler);
+            return false;
+        }
+        return watch(aDirectory, aHandler);
+    }
+
+    /**
+     * Watches a polled directory that was changed, at the cost of the least recently changed watched one.
+     *
+     * @return true if the directory is watched
+     */
+    public synchronized boolean promote(final Path aDirectory, final Handler aHandler) {
+        if (polledDirectories.remove(aDirectory) == null) {
+            return keysByDirectory.containsKey(aDirectory);
+        }
+        return watch(aDirectory, aHandler);
+    }
+
+    private boolean watch(final Path aDirectory, final Handler aHandler) {
+        if (!budget.tryAcquire() && !(evictLeastRecentlyChanged() && budget.tryAcquire())) {
+            polledDirectories.put(aDirectory, aHandler);
+            return false;
+        }
+        final WatchKey theKey;
+        try {
+            theKey = aDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (final IOException e) {
+            // Most likely the limit of the operating system was reached
+            budget.release();
+            LOGGER.warn("Cannot watch " + aDirectory + ", polling it instead : " + e.getMessage());
+            polledDirectories.put(aDirectory, aHandler);
+            return false;
+        }
+        watchedDirectories.put(theKey, aHandler);
+        keysByDirectory.put(aDirectory, theKey);
+        watchesByHandler.merge(aHandler, 1, Integer::sum);
+        return true;
+    }
+
+    /**
+     * Moves the least recently changed directory of a handler using at least its share of the budget to polling.
+     */
+    private boolean evictLeastRecentlyChanged() {
+        final int theFairShare = Math.max(1, budget.getLimit() / Math.max(1, watchesByHandler.size()));
+        for (final Iterator<Map.Entry<WatchKey, Handler>> i = watchedDirectories.entrySet().iterator(); i.hasNext(); ) {
+            final Map.Entry<WatchKey, Handler> theEntry = i.next();
+            if (watchesByHandler.getOrDefault(theEntry.getValue(), 0) >= theFairShare) {
+                i.remove();
+                theEntry.getKey().cancel();
+                budget.release();
+                watchesByHandler.merge(theEntry.getValue(), -1, Integer::sum);
+                keysByDirectory.remove((Path) theEntry.getKey().watchable());
+                polledDirectories.put((Path) theEntry.getKey().watchable(), theEntry.getValue());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cancels all watches registered by the handler.
+     */
+    public synchronized void unregister(final Handler aHandler) {
+        watchedDirectories.entrySet().removeIf(aEntry -> {
+            if (aEntry.getValue() == aHandler) {
+                aEntry.getKey().cancel();
+                budget.release();
+                keysByDirectory.remove((Path) aEntry.getKey().watchable());
+                return true;
+            }
+            return false;
+        });
+        watchesByHandler.remove(aHandler);
+        polledDirectories.values().removeIf(aValue -> aValue == aHandler);
+    }
+
+    public synchronized void stopPolling(final Path aDirectory) {
+        polledDirectories.remove(aDirectory);
+    }
+
+    public synchronized boolean isPolled(final Path aDirectory) {
+        return polledDirectories.containsKey(aDirectory);
+    }
+
+    public synchronized int numberOfWatchedDirectories() {
+        return watchedDirectories.size();
+    }
+
+    public synchronized int numberOfPolledDirectories() {
+        return polledDirectories.size();
+    }
+
+    private synchronized Handler handlerFor(final WatchKey aKey) {
+        // Marks the directory as recently changed
+        return watchedDirectories.get(aKey);
+    }
+
+    private synchronized void removeInvalidKey(final WatchKey aKey) {
+        final Handler theHandler = watchedDirectories.remove(aKey);
+        if (theHandler != null) {
+            keysByDirectory.remove((Path) aKey.watchable());
+            budget.release();
+            watchesByHandler.merge(theHandler, -1, Integer::sum);
+        }
+    }
+
+    private void pollDirectories() {
+        final Map<Handler, Set<Path>> theDirectoriesByHandler = new HashMap<>();
+        synchronized (this) {
+            if (polledDirectories.isEmpty()) {
+                return;
+            }
+            LOGGER.info("Watching " + watchedDirectories.size() + " directories, polling " + polledDirectories.size());
+            polledDirectories.forEach((aPath, aHandler) -> theDirectoriesByHandler.computeIfAbsent(aHandler, aKey -> new HashSet<>()).add(aPath));
+        }
+        theDirectoriesByHandler.forEach((aHandler, aDirectories) -> {
+            try {
+                aHandler.pollDirectories(aDirectories);
+            } catch (final Exception e) {
+                LOGGER.error("Error polling directories", e);
+            }
+        });
+    }
+
+    private void run() {
+        try {
+            long theNextPoll = System.currentTimeMillis() + POLL_INTERVAL_MILLIS;
+            while (!Thread.currentThread().isInterrupted()) {
+                final WatchKey theKey = watchService.poll(Math.max(theNextPoll - System.currentTimeMillis(), 1), TimeUnit.MILLISECONDS);
+                if (theKey != null) {
+                    final List<WatchEvent<?>> theEvents = theKey.pollEvents();
+                    final Handler theHandler = handlerFor(theKey);
+                    if (theHandler != null) {
+                        try {
+                            theHandler.eventsReceived((Path) theKey.watchable(), theEvents);
+                        } catch (final Exception e) {
+                            LOGGER.error("Error handling events for " + theKey.watchable(), e);
+                        }
+                    }
+                    if (!theKey.reset()) {
+                        // The directory is gone
+                        removeInvalidKey(theKey);
+                    }
+                }
+                if (System.currentTimeMillis() >= theNextPoll) {
+                    pollDirectories();
+                    theNextPoll = System.currentTimeMillis() + POLL_INTERVAL_MILLIS;
+                }
+            }
+        } catch (final InterruptedException e) {
+            LOGGER.debug("Has been interrupted");
+        } catch (final ClosedWatchServiceException e) {
+            LOGGER.debug("Watch service was closed");
+        }
+    }
+}
@@ -15,26 +15,35 @@ package de.mirkosertic.desktopsearch;
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
-import java.nio.file.WatchService;
 import java.util.HashMap;
 import java.util.Map;
 
 public class WatchServiceCache {
 
-    private final Map<FileSystem, WatchService> watchServices;
+    private final Map<FileSystem, WatchEventLoop> eventLoops;
+    private final WatchBudget budget;
 
     public WatchServiceCache() {
-        watchServices = new HashMap<>();
+        eventLoops = new HashMap<>();
+        budget = WatchBudget.forSystem();
     }
 
-    public synchronized WatchService getWatchServiceFor(final Path aPath) throws IOException {
+    public synchronized WatchEventLoop getEventLoopFor(final Path aPath) throws IOException {
         final FileSystem theFileSystem = aPath.getFileSystem();
-        WatchService theService = watchServices.get(theFileSystem);
-        if (theService == null) {
-            theService = theFileSystem.newWatchService();
-            watchServices.put(theFileSystem, theService);
+        WatchEventLoop theLoop = eventLoops.get(theFileSystem);
+        if (theLoop == null) {
+            theLoop = new WatchEventLoop(theFileSystem.newWatchService(), budget);
+            eventLoops.put(theFileSystem, theLoop);
         }
 
-        return theService;
+        return theLoop;
+    }
+
+    public synchronized int numberOfWatchedDirectories() {
+        return eventLoops.values().stream().mapToInt(WatchEventLoop::numberOfWatchedDirectories).sum();
+    }
+
+    public synchronized int numberOfPolledDirectories() {
+        return eventLoops.values().stream().mapToInt(WatchEventLoop::numberOfPolledDirectories).sum();
     }
 }
@@ -15,8 +15,8 @@ package de.mirkosertic.desktopsearch.jodpreview;
 import com.artofsolving.jodconverter.DefaultDocumentFormatRegistry;
 import com.artofsolving.jodconverter.DocumentFamily;
 import com.artofsolving.jodconverter.DocumentFormat;
-import com.artofsolving.jodconverter.openoffice.connection.SocketOpenOfficeConnection;
-import com.artofsolving.jodconverter.openoffice.converter.OpenOfficeDocumentConverter;
+import com.artofsolving.jodconverter.openoffice.connection.OpenOfficeConnection;
+import com.artofsolving.jodconverter.openoffice.converter.StreamOpenOfficeDocumentConverter;
 import de.mirkosertic.desktopsearch.ImageUtils;
 import de.mirkosertic.desktopsearch.Preview;
 import de.mirkosertic.desktopsearch.PreviewConstants;
@@ -27,27 +27,29 @@ import org.apache.log4j.Logger;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.IOException;
-import java.net.ConnectException;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 public class JODPreviewGenerator implements PreviewGenerator, PreviewConstants {
 
     private static final Logger LOGGER = Logger.getLogger(JODPreviewGenerator.class);
 
-    private boolean enabled;
+    private static final int OPENOFFICE_PORT = 8100;
+    private static final int MAX_CONCURRENT_CONVERSIONS = 2;
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+    private static final String THUMBNAIL_ENTRY = "Thumbnails/thumbnail.png";
+
     private final Set<SupportedDocumentType> suppportedDocumentTypes;
     private final DefaultDocumentFormatRegistry documentFormatRegistry;
-
-    private static SocketOpenOfficeConnection createConnection() throws ConnectException {
-        final SocketOpenOfficeConnection theConnection = new SocketOpenOfficeConnection(8100);
-        theConnection.connect();
-        return theConnection;
-    }
+    private final OfficeConnectionPool connectionPool;
 
     public JODPreviewGenerator() {
         suppportedDocumentTypes = new HashSet<>();
@@ -69,19 +71,12 @@ public class JODPreviewGenerator implements PreviewGenerator, PreviewConstants {
         theDOCXFormat.setExportFilter(DocumentFamily.TEXT, "MS Word 2007");
         documentFormatRegistry.addDocumentFormat(thePPTXFormat);
 
-        try {
-            final SocketOpenOfficeConnection theConnection = createConnection();
-            theConnection.disconnect();
-            enabled = true;
-        } catch (final Exception e) {
-            LOGGER.error("Error connecting to OpenOffice on port 8100");
-            enabled = false;
-        }
+        connectionPool = new OfficeConnectionPool(OPENOFFICE_PORT, MAX_CONCURRENT_CONVERSIONS);
     }
 
     @Override
     public boolean supportsFile(final File aFile) {
-        if (!enabled) {
+        if (!connectionPool.isAvailable()) {
             return false;
         }
         for (final SupportedDocumentType theType : suppportedDocumentTypes) {
@@ -94,42 +89,57 @@ public class JODPreviewGenerator implements PreviewGenerator, PreviewConstants {
 
     @Override
     public Preview createPreviewFor(final File aFile) {
-        File theTempFile = null;
-        SocketOpenOfficeConnection theConnection = null;
-        try {
-
-            theConnection = createConnection();
-
-            final OpenOfficeDocumentConverter theConverter = new OpenOfficeDocumentConverter(theConnection, documentFormatRegistry);
-            // Convert to OfficeOpen file
-            theTempFile = File.createTempFile("jodtemp", ".odt");
-            theConverter.convert(aFile, theTempFile);
+        final DocumentFormat theInputFormat = documentFormatRegistry.getFormatByFileExtension(extensionOf(aFile));
+        if (theInputFormat == null) {
+            LOGGER.error("Unknown document format of " + aFile);
+            return null;
+        }
 
-            // Now we need to extract the thumbnail from the newly converted file
-            final ZipFile theZipFile;
-            try {
-                theZipFile = new ZipFile(theTempFile);
-            } catch (final IOException e) {
-                LOGGER.error("Error opening "+theTempFile, e);
+        OpenOfficeConnection theConnection = null;
+        boolean theFailed = false;
+        try {
+            theConnection = connectionPool.borrow(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (theConnection == null) {
+                LOGGER.warn("No free OpenOffice connection for " + aFile);
                 return null;
             }
 
-            final ZipEntry theThumbnailEntry = theZipFile.getEntry("Thumbnails/thumbnail.png");
-            if (theThumbnailEntry == null) {
-                LOGGER.error("Cannot find thumbnail in "+theTempFile);
-                return null;
+            // Convert to OfficeOpen, the result is kept in memory
+            final StreamOpenOfficeDocumentConverter theConverter = new StreamOpenOfficeDocumentConverter(theConnection, documentFormatRegistry);
+            final ByteArrayOutputStream theConverted = new ByteArrayOutputStream();
+            try (InputStream theInput = new BufferedInputStream(new FileInputStream(aFile))) {
+                theConverter.convert(theInput, theInputFormat, theConverted, documentFormatRegistry.getFormatByFileExtension("odt"));
             }
 
-            final BufferedImage theImage = ImageIO.read(new BufferedInputStream(theZipFile.getInputStream(theThumbnailEntry)));
-            return new Preview(ImageUtils.rescale(theImage, THUMB_WIDTH, THUMB_HEIGHT, ImageUtils.RescaleMethod.RESIZE_FIT_ONE_DIMENSION));
+            // Now we need to extract the thumbnail from the converted document
+            try (ZipInputStream theZip = new ZipInputStream(new ByteArrayInputStream(theConverted.toByteArray()))) {
+                ZipEntry theEntry;
+                while ((theEntry = theZip.getNextEntry()) != null) {
+                    if (THUMBNAIL_ENTRY.equals(theEntry.getName())) {
+                        final BufferedImage theImage = ImageIO.read(theZip);
+                        return new Preview(ImageUtils.rescale(theImage, THUMB_WIDTH, THUMB_HEIGHT, ImageUtils.RescaleMethod.RESIZE_FIT_ONE_DIMENSION));
+                    }
+                }
+            }
+            LOGGER.error("Cannot find thumbnail in converted " + aFile);
+            return null;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         } catch (final Exception e) {
             LOGGER.error("Error converting file " + aFile, e);
+            theFailed = true;
             return null;
         } finally {
-            theTempFile.delete();
             if (theConnection != null) {
-                theConnection.disconnect();
+                connectionPool.release(theConnection, theFailed);
             }
         }
     }
-}
\ No newline at end of file
+
+    private static String extensionOf(final File aFile) {
+        final String theName = aFile.getName();
+        final int p = theName.lastIndexOf('.');
+        return p >= 0 ? theName.substring(p + 1).toLowerCase() : "";
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch.jodpreview;
+
+import com.artofsolving.jodconverter.openoffice.connection.OpenOfficeConnection;
+import com.artofsolving.jodconverter.openoffice.connection.SocketOpenOfficeConnection;
+import org.apache.log4j.Logger;
+
+import java.net.ConnectException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed number of long living connections to an OpenOffice instance. Callers wait for a free
+ * connection, so the number of concurrent conversions is limited by the pool size. If OpenOffice
+ * is not reachable, the pool is marked as unavailable and probed again in the background.
+ */
+class OfficeConnectionPool {
+
+    private static final Logger LOGGER = Logger.getLogger(OfficeConnectionPool.class);
+
+    private static final long PROBE_INTERVAL_SECONDS = 60;
+
+    private final int port;
+    private final BlockingQueue<SocketOpenOfficeConnection> idleConnections;
+    private final ScheduledExecutorService prober;
+    private volatile boolean available;
+
+    public OfficeConnectionPool(final int aPort, final int aSize) {
+        port = aPort;
+        idleConnections = new LinkedBlockingQueue<>();
+        for (int i = 0; i < aSize; i++) {
+            idleConnections.add(new SocketOpenOfficeConnection(aPort));
+        }
+        prober = Executors.newSingleThreadScheduledExecutor(aRunnable -> {
+            final Thread theThread = new Thread(aRunnable, "OfficeConnectionProbe");
+            theThread.setDaemon(true);
+            return theThread;
+        });
+        available = probe();
+        prober.scheduleWithFixedDelay(() -> {
+            if (!available) {
+                available = probe();
+            }
+        }, PROBE_INTERVAL_SECONDS, PROBE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private boolean probe() {
+        final SocketOpenOfficeConnection theConnection = idleConnections.poll();
+        if (theConnection == null) {
+            // All connections are in use, so OpenOffice is obviously there
+            return true;
+        }
+        try {
+            ensureConnected(theConnection);
+            LOGGER.info("Connected to OpenOffice on port " + port);
+            return true;
+        } catch (final Exception e) {
+            LOGGER.warn("Error connecting to OpenOffice on port " + port + ", trying again in " + PROBE_INTERVAL_SECONDS + " seconds");
+            return false;
+        } finally {
+            idleConnections.add(theConnection);
+        }
+    }
+
+    private static void ensureConnected(final SocketOpenOfficeConnection aConnection) throws ConnectException {
+        if (!aConnection.isConnected()) {
+            aConnection.connect();
+        }
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Borrows a connected connection, waiting at most the given time for a free one.
+     *
+     * @return the connection or null if none was free in time
+     */
+    public OpenOfficeConnection borrow(final long aTimeout, final TimeUnit aUnit) throws ConnectException, InterruptedException {
+        final SocketOpenOfficeConnection theConnection = idleConnections.poll(aTimeout, aUnit);
+        if (theConnection == null) {
+            return null;
+        }
+        try {
+            ensureConnected(theConnection);
+            return theConnection;
+        } catch (final ConnectException e) {
+            idleConnections.add(theConnection);
+            available = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a borrowed connection. Connections which failed during use are disconnected, so
+     * they are connected again by the next borrower.
+     */
+    public void release(final OpenOfficeConnection aConnection, final boolean aFailed) {
+        if (aFailed && aConnection.isConnected()) {
+            try {
+                aConnection.disconnect();
+            } catch (final Exception e) {
+                LOGGER.debug("Error disconnecting from OpenOffice", e);
+            }
+        }
+        idleConnections.add((SocketOpenOfficeConnection) aConnection);
+    }
+}
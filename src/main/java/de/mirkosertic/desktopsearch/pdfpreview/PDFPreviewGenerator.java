@@ -12,76 +12,152 @@
  */
 package de.mirkosertic.desktopsearch.pdfpreview;
 
+import de.mirkosertic.desktopsearch.ImageUtils;
 import de.mirkosertic.desktopsearch.Preview;
 import de.mirkosertic.desktopsearch.PreviewConstants;
 import de.mirkosertic.desktopsearch.PreviewGenerator;
 import de.mirkosertic.desktopsearch.SupportedDocumentType;
 
 import org.apache.log4j.Logger;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageTree;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.PageDrawer;
+import org.apache.pdfbox.rendering.PageDrawerParameters;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class PDFPreviewGenerator implements PreviewGenerator, PreviewConstants {
 
     private static final Logger LOGGER = Logger.getLogger(PDFPreviewGenerator.class);
 
+    private static final long DEFAULT_MAX_MAIN_MEMORY_BYTES = 16L * 1024 * 1024;
+    private static final long DEFAULT_TIME_BUDGET_MILLIS = 5000;
+
+    private static class TimeBudgetExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private TimeBudgetExceededException() {
+            super("Time budget exceeded");
+        }
+    }
+
+    /**
+     * Renders only the first page and stops if the time budget is used up.
+     */
+    private static class ThumbnailRenderer extends PDFRenderer {
+
+        private final long deadline;
+
+        private ThumbnailRenderer(final PDDocument aDocument, final long aDeadline) {
+            super(aDocument);
+            deadline = aDeadline;
+            // Large scanned images do not need to be decoded in full resolution for a thumbnail
+            setSubsamplingAllowed(true);
+        }
+
+        @Override
+        protected PageDrawer createPageDrawer(final PageDrawerParameters aParameters) throws IOException {
+            return new PageDrawer(aParameters) {
+                @Override
+                protected void processOperator(final Operator aOperator, final List<COSBase> aOperands) throws IOException {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new TimeBudgetExceededException();
+                    }
+                    super.processOperator(aOperator, aOperands);
+                }
+            };
+        }
+    }
+
     private final Set<SupportedDocumentType> suppportedDocumentTypes;
+    private final long maxMainMemoryBytes;
+    private final long timeBudgetMillis;
 
     public PDFPreviewGenerator() {
+        this(DEFAULT_MAX_MAIN_MEMORY_BYTES, DEFAULT_TIME_BUDGET_MILLIS);
+    }
+
+    public PDFPreviewGenerator(final long aMaxMainMemoryBytes, final long aTimeBudgetMillis) {
         suppportedDocumentTypes = new HashSet<>();
         suppportedDocumentTypes.add(SupportedDocumentType.pdf);
+        maxMainMemoryBytes = aMaxMainMemoryBytes;
+        timeBudgetMillis = aTimeBudgetMillis;
     }
 
     @Override
     public Preview createPreviewFor(final File aFile) {
-        try(final PDDocument theDocument = PDDocument.load(aFile))  {
+        final long theDeadline = System.currentTimeMillis() + timeBudgetMillis;
+        // Objects are parsed on demand, everything above the memory limit is buffered in a scratch file
+        try(final PDDocument theDocument = PDDocument.load(aFile, MemoryUsageSetting.setupMixed(maxMainMemoryBytes)))  {
             final PDPageTree thePages = theDocument.getPages();
             if (thePages.getCount() == 0) {
                 return null;
             }
-            final PDPage theFirstPage = (PDPage) thePages.get(0);
+            final PDPage theFirstPage = thePages.get(0);
+
+            final BufferedImage theEmbeddedThumbnail = embeddedThumbnailOf(theFirstPage);
+            if (theEmbeddedThumbnail != null) {
+                return new Preview(ImageUtils.rescale(theEmbeddedThumbnail, THUMB_WIDTH, THUMB_HEIGHT, ImageUtils.RescaleMethod.RESIZE_FIT_ONE_DIMENSION));
+            }
 
-            final PDRectangle mBox = theFirstPage.getMediaBox();
-            final float theWidthPt = mBox.getWidth();
-            final int theWidthPx = THUMB_WIDTH; // Math.round(widthPt * scaling);
-            final int theHeightPx = THUMB_HEIGHT; // Math.round(heightPt * scaling);
-            final float theScaling = THUMB_WIDTH / theWidthPt; // resolution / 72.0F;
+            // The renderer rotates the page, so the visible width depends on the rotation
+            final PDRectangle theCropBox = theFirstPage.getCropBox();
+            final int theRotation = theFirstPage.getRotation();
+            final float theWidthPt = theRotation == 90 || theRotation == 270 ? theCropBox.getHeight() : theCropBox.getWidth();
+            final float theScaling = THUMB_WIDTH / theWidthPt;
 
-            final BufferedImage theImage = new BufferedImage(theWidthPx, theHeightPx, BufferedImage.TYPE_INT_RGB);
+            final BufferedImage theImage = new BufferedImage(THUMB_WIDTH, THUMB_HEIGHT, BufferedImage.TYPE_INT_RGB);
             final Graphics2D theGraphics = (Graphics2D) theImage.getGraphics();
-            theGraphics.setBackground(new Color(255, 255, 255, 0));
-            theGraphics.clearRect(0, 0, theImage.getWidth(), theImage.getHeight());
-
-            final PDFRenderer theRenderer = new PDFRenderer(theDocument);
-            theRenderer.renderPageToGraphics(0, theGraphics, theScaling);
-
-            final int rotation = theFirstPage.getRotation();
-            if ((rotation == 90) || (rotation == 270)) {
-                final int w = theImage.getWidth();
-                final int h = theImage.getHeight();
-                final BufferedImage rotatedImg = new BufferedImage(w, h, theImage.getType());
-                final Graphics2D g = rotatedImg.createGraphics();
-                g.rotate(Math.toRadians(rotation), w / 2, h / 2);
-                g.drawImage(theImage, null, 0, 0);
+            try {
+                theGraphics.setBackground(new Color(255, 255, 255, 0));
+                theGraphics.clearRect(0, 0, theImage.getWidth(), theImage.getHeight());
+
+                new ThumbnailRenderer(theDocument, theDeadline).renderPageToGraphics(0, theGraphics, theScaling);
+            } finally {
+                theGraphics.dispose();
             }
-            theGraphics.dispose();
             return new Preview(theImage);
+        } catch (final TimeBudgetExceededException e) {
+            LOGGER.warn("Rendering preview for " + aFile + " took longer than " + timeBudgetMillis + "ms, giving up");
+            return null;
         } catch (final Exception e) {
             LOGGER.error("Error creating preview for " + aFile, e);
             return null;
         }
     }
 
+    private static BufferedImage embeddedThumbnailOf(final PDPage aPage) {
+        final COSBase theThumbnail = aPage.getCOSObject().getDictionaryObject(COSName.getPDFName("Thumb"));
+        if (!(theThumbnail instanceof COSStream)) {
+            return null;
+        }
+        try {
+            return new PDImageXObject(new PDStream((COSStream) theThumbnail), aPage.getResources()).getImage();
+        } catch (final Exception e) {
+            // Not worth failing for, we can still render the page
+            LOGGER.debug("Cannot read embedded thumbnail", e);
+            return null;
+        }
+    }
+
     @Override
     public boolean supportsFile(final File aFile) {
         for (final SupportedDocumentType theType : suppportedDocumentTypes) {
@@ -91,4 +167,4 @@ public class PDFPreviewGenerator implements PreviewGenerator, PreviewConstants {
         }
         return false;
     }
-}
\ No newline at end of file
+}
@@ -54,7 +54,7 @@
                         <#list queryResult.documents as document>
                             <div style="display: flex; flex-direction: row; padding-bottom: 1em;">
                                 <#if document.previewAvailable>
-                                    <div><img src="loading.gif" data-src="/thumbnail/preview/${document.uniqueID}.png"/></div>
+                                    <div><img src="loading.gif" data-src="/thumbnail/preview/${document.uniqueID}.jpg"/></div>
                                 </#if>
                                 <div style="margin: 0.4em;">
                                     <#list document.fileNames as filename>
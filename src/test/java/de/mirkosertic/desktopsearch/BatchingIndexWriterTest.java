@@ -0,0 +1,82 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchingIndexWriterTest {
+
+    /**
+     * Accepts every request unless it contains the rejected document.
+     */
+    private static class RejectingSolrClient extends SolrClient {
+
+        private final List<String> indexed = new ArrayList<>();
+
+        @Override
+        public NamedList<Object> request(final SolrRequest aRequest, final String aCollection) throws SolrServerException {
+            final List<SolrInputDocument> theDocuments = ((UpdateRequest) aRequest).getDocuments();
+            if (theDocuments != null) {
+                for (final SolrInputDocument theDocument : theDocuments) {
+                    if ("/rejected".equals(theDocument.getFieldValue(IndexFields.UNIQUEID))) {
+                        throw new SolrServerException("Document is missing required fields");
+                    }
+                }
+                theDocuments.forEach(theDocument -> indexed.add((String) theDocument.getFieldValue(IndexFields.UNIQUEID)));
+            }
+            return new NamedList<>();
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static SolrInputDocument documentFor(final String aFileName) {
+        final SolrInputDocument theDocument = new SolrInputDocument();
+        theDocument.setField(IndexFields.UNIQUEID, aFileName);
+        return theDocument;
+    }
+
+    @Test
+    public void testOnlyFailingDocumentsAreSkipped() {
+        final RejectingSolrClient theClient = new RejectingSolrClient();
+        final BatchingIndexWriter theWriter = new BatchingIndexWriter(theClient, 100, Long.MAX_VALUE, 60000);
+        final List<String> theRecorded = new ArrayList<>();
+        for (final String theFileName : Arrays.asList("/a", "/rejected", "/b")) {
+            theWriter.add(documentFor(theFileName), () -> theRecorded.add(theFileName));
+        }
+        assertEquals(0, theRecorded.size());
+
+        theWriter.flush();
+        assertEquals(Arrays.asList("/a", "/b"), theClient.indexed);
+        assertEquals(Arrays.asList("/a", "/b"), theRecorded);
+        theWriter.shutdown();
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExtractionQuarantineTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testQuarantineAfterRepeatedFailures() throws Exception {
+        final String theFileName = folder.newFile("broken.pdf").toString();
+        final ExtractionQuarantine theQuarantine = ExtractionQuarantine.open(folder.getRoot());
+        theQuarantine.failed(theFileName, 100, 42);
+        assertFalse(theQuarantine.isQuarantined(theFileName, 100, 42));
+
+        theQuarantine.failed(theFileName, 100, 42);
+        assertTrue(theQuarantine.isQuarantined(theFileName, 100, 42));
+        // A changed file is tried again
+        assertFalse(theQuarantine.isQuarantined(theFileName, 100, 43));
+        theQuarantine.save();
+
+        final ExtractionQuarantine theReloaded = ExtractionQuarantine.open(folder.getRoot());
+        assertEquals(1, theReloaded.size());
+        assertTrue(theReloaded.isQuarantined(theFileName, 100, 42));
+
+        theReloaded.succeeded(theFileName);
+        assertFalse(theReloaded.isQuarantined(theFileName, 100, 42));
+        theReloaded.save();
+        assertEquals(0, ExtractionQuarantine.open(folder.getRoot()).size());
+    }
+
+    @Test
+    public void testDeletedFilesAreRemoved() throws Exception {
+        final File theDeletedLater = folder.newFile("deleted-later.pdf");
+        final String theRemovedFileName = folder.newFile("removed.pdf").toString();
+        final ExtractionQuarantine theQuarantine = ExtractionQuarantine.open(folder.getRoot());
+        theQuarantine.failed(theDeletedLater.toString(), 100, 42);
+        theQuarantine.failed(theRemovedFileName, 100, 42);
+        theQuarantine.removed(theRemovedFileName);
+        assertEquals(1, theQuarantine.size());
+        theQuarantine.save();
+
+        assertTrue(theDeletedLater.delete());
+        assertEquals(0, ExtractionQuarantine.open(folder.getRoot()).size());
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileEventDebouncerTest {
+
+    private static final Path FILE = Paths.get("/home/user/file.txt");
+
+    @Test
+    public void testBurstResultsInOneActionAfterTheQuietPeriod() throws InterruptedException {
+        final FileEventDebouncer theDebouncer = new FileEventDebouncer(300, 10000);
+        final BlockingQueue<WatchEvent.Kind<?>> thePerformed = new LinkedBlockingQueue<>();
+        final FileEventDebouncer.Action theAction = (aPath, aKind) -> thePerformed.add(aKind);
+
+        theDebouncer.eventReceived(FILE, StandardWatchEventKinds.ENTRY_CREATE, theAction);
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(50);
+            theDebouncer.eventReceived(FILE, StandardWatchEventKinds.ENTRY_MODIFY, theAction);
+        }
+        final long theLastEventTime = System.currentTimeMillis();
+
+        final WatchEvent.Kind<?> theKind = thePerformed.poll(5, TimeUnit.SECONDS);
+        assertTrue(System.currentTimeMillis() - theLastEventTime >= 250);
+        // The last event kind wins
+        assertEquals(StandardWatchEventKinds.ENTRY_MODIFY, theKind);
+        assertNull(thePerformed.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFileThatNeverGetsQuietIsHandledAfterTheMaximumDelay() throws InterruptedException {
+        final FileEventDebouncer theDebouncer = new FileEventDebouncer(300, 1000);
+        final BlockingQueue<WatchEvent.Kind<?>> thePerformed = new LinkedBlockingQueue<>();
+        final FileEventDebouncer.Action theAction = (aPath, aKind) -> thePerformed.add(aKind);
+
+        final long theStartTime = System.currentTimeMillis();
+        WatchEvent.Kind<?> theKind = null;
+        while (theKind == null && System.currentTimeMillis() - theStartTime < 5000) {
+            theDebouncer.eventReceived(FILE, StandardWatchEventKinds.ENTRY_MODIFY, theAction);
+            theKind = thePerformed.poll(100, TimeUnit.MILLISECONDS);
+        }
+        final long theDelay = System.currentTimeMillis() - theStartTime;
+
+        assertNotNull(theKind);
+        assertTrue("Performed after " + theDelay + "ms", theDelay >= 900 && theDelay < 3000);
+    }
+}
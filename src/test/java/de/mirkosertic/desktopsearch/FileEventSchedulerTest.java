@@ -0,0 +1,81 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class FileEventSchedulerTest {
+
+    private static Backend.FileEvent eventFor(final String aFileName, final FileEventScheduler.Lane aLane) {
+        return new Backend.FileEvent(null, Paths.get(aFileName), null, Backend.FileEvent.EventType.UPDATED, aLane);
+    }
+
+    @Test
+    public void testLanesAreServedByTheirWeight() throws InterruptedException {
+        final FileEventScheduler theScheduler = new FileEventScheduler();
+        for (int i = 0; i < 100; i++) {
+            for (final FileEventScheduler.Lane theLane : FileEventScheduler.Lane.values()) {
+                theScheduler.offer(eventFor("/" + theLane + "/file" + i, theLane));
+            }
+        }
+
+        final Map<FileEventScheduler.Lane, Integer> theServed = new EnumMap<>(FileEventScheduler.Lane.class);
+        for (int i = 0; i < 13 * 5; i++) {
+            theServed.merge(theScheduler.take().getLane(), 1, Integer::sum);
+        }
+        assertEquals(40, (int) theServed.get(FileEventScheduler.Lane.INTERACTIVE));
+        assertEquals(20, (int) theServed.get(FileEventScheduler.Lane.DELETION));
+        assertEquals(5, (int) theServed.get(FileEventScheduler.Lane.CRAWL));
+    }
+
+    @Test
+    public void testPromoteMovesTheQueuedEvent() throws InterruptedException {
+        final FileEventScheduler theScheduler = new FileEventScheduler();
+        for (int i = 0; i < 10; i++) {
+            theScheduler.offer(eventFor("/crawled/file" + i, FileEventScheduler.Lane.CRAWL));
+        }
+        final Backend.FileEvent theChanged = eventFor("/crawled/file5", FileEventScheduler.Lane.INTERACTIVE);
+        theScheduler.promote(theChanged);
+
+        assertEquals(9, theScheduler.depthOf(FileEventScheduler.Lane.CRAWL));
+        assertEquals(1, theScheduler.depthOf(FileEventScheduler.Lane.INTERACTIVE));
+        assertSame(theChanged, theScheduler.take());
+
+        // Nothing is queued for the path anymore, so there is nothing to promote
+        theScheduler.promote(eventFor("/crawled/file5", FileEventScheduler.Lane.INTERACTIVE));
+        assertEquals(9, theScheduler.size());
+    }
+
+    @Test
+    public void testEventForTheSamePathReplacesTheQueuedOne() throws InterruptedException {
+        final FileEventScheduler theScheduler = new FileEventScheduler();
+        final Path thePath = Paths.get("/home/user/file.txt");
+        theScheduler.offer(eventFor(thePath.toString(), FileEventScheduler.Lane.INTERACTIVE));
+        final Backend.FileEvent theNewer = eventFor(thePath.toString(), FileEventScheduler.Lane.INTERACTIVE);
+        theScheduler.offer(theNewer);
+
+        assertEquals(1, theScheduler.size());
+        assertSame(theNewer, theScheduler.take());
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileStateManifestTest {
+
+    private static class TestAttributes implements BasicFileAttributes {
+
+        private final long size;
+        private final long lastModified;
+
+        private TestAttributes(final long aSize, final long aLastModified) {
+            size = aSize;
+            lastModified = aLastModified;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(lastModified);
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static String fileName(final String... aNames) {
+        return Paths.get(File.separator, aNames).toString();
+    }
+
+    private static Set<String> setOf(final List<String> aFileNames) {
+        return new HashSet<>(aFileNames);
+    }
+
+    @Test
+    public void testFilesBelowDirectory() throws Exception {
+        final FileStateManifest theManifest = FileStateManifest.open(folder.getRoot(), "location", "index");
+        theManifest.update(fileName("a", "b", "1.txt"), 1, 1);
+        theManifest.update(fileName("a", "b", "c", "2.txt"), 1, 1);
+        theManifest.update(fileName("a", "b c", "3.txt"), 1, 1);
+        theManifest.update(fileName("a", "4.txt"), 1, 1);
+        // Files in the sorted entries and files added since are found alike
+        theManifest.save();
+        theManifest.update(fileName("a", "b", "5.txt"), 1, 1);
+
+        final Set<Path> theDirectories = Collections.singleton(Paths.get(fileName("a", "b")));
+        assertEquals(new HashSet<>(Arrays.asList(fileName("a", "b", "1.txt"), fileName("a", "b", "c", "2.txt"), fileName("a", "b", "5.txt"))),
+                setOf(theManifest.filesBelow(theDirectories)));
+
+        theManifest.remove(fileName("a", "b", "1.txt"));
+        theManifest.remove(fileName("a", "b", "5.txt"));
+        assertEquals(Collections.singleton(fileName("a", "b", "c", "2.txt")), setOf(theManifest.filesBelow(theDirectories)));
+        assertEquals(3, theManifest.size());
+    }
+
+    @Test
+    public void testEntriesSurviveMergeAndReload() throws Exception {
+        final FileStateManifest theManifest = FileStateManifest.open(folder.getRoot(), "location", "index");
+        // Enough files to be merged into the sorted entries while they are added
+        for (int i = 0; i < 10000; i++) {
+            theManifest.update(fileName("dir" + (i % 7), "file" + i), i, i * 2);
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            theManifest.remove(fileName("dir" + (i % 7), "file" + i));
+        }
+        assertEquals(5000, theManifest.size());
+        theManifest.save();
+
+        final FileStateManifest theReloaded = FileStateManifest.open(folder.getRoot(), "location", "index");
+        assertEquals(5000, theReloaded.size());
+        theReloaded.beginCrawl();
+        for (int i = 1; i < 10000; i += 2) {
+            final Path thePath = Paths.get(fileName("dir" + (i % 7), "file" + i));
+            if (i != 9999) {
+                assertTrue(theReloaded.isUnchanged(thePath, new TestAttributes(i, i * 2)));
+            }
+        }
+        assertEquals(Collections.singletonList(fileName("dir" + (9999 % 7), "file9999")), theReloaded.unseenFiles(Collections.emptySet()));
+    }
+
+    @Test
+    public void testManifestOfAnotherIndexIsDiscarded() throws Exception {
+        final FileStateManifest theManifest = FileStateManifest.open(folder.getRoot(), "location", "index");
+        theManifest.update(fileName("a.txt"), 1, 1);
+        theManifest.save();
+
+        assertEquals(1, FileStateManifest.open(folder.getRoot(), "location", "index").size());
+        assertEquals(0, FileStateManifest.open(folder.getRoot(), "location", "another index").size());
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightFileEventsTest {
+
+    private static Backend.FileEvent eventFor(final String aFileName) {
+        return new Backend.FileEvent(null, Paths.get(aFileName), null, Backend.FileEvent.EventType.UPDATED,
+                FileEventScheduler.Lane.INTERACTIVE);
+    }
+
+    @Test
+    public void testEventIsMergedIntoThePendingOne() {
+        final InFlightFileEvents theEvents = new InFlightFileEvents();
+        final Backend.FileEvent theFirst = eventFor("/home/user/file.txt");
+        final Backend.FileEvent theSecond = eventFor("/home/user/file.txt");
+        assertTrue(theEvents.offer(theFirst));
+        assertFalse(theEvents.offer(theSecond));
+
+        // The queued event is processed with the latest state
+        assertSame(theSecond, theEvents.latestFor(theFirst));
+        assertNull(theEvents.complete(theSecond));
+        assertEquals(0, theEvents.size());
+    }
+
+    @Test
+    public void testEventArrivingDuringProcessingIsPublishedAgain() {
+        final InFlightFileEvents theEvents = new InFlightFileEvents();
+        final Backend.FileEvent theFirst = eventFor("/home/user/file.txt");
+        assertTrue(theEvents.offer(theFirst));
+        assertSame(theFirst, theEvents.latestFor(theFirst));
+
+        // Arrives after the first event was taken for processing
+        final Backend.FileEvent theSecond = eventFor("/home/user/file.txt");
+        assertFalse(theEvents.offer(theSecond));
+
+        assertSame(theSecond, theEvents.complete(theFirst));
+        assertEquals(1, theEvents.size());
+        assertNull(theEvents.complete(theSecond));
+        assertEquals(0, theEvents.size());
+    }
+}
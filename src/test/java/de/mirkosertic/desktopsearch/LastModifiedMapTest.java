@@ -0,0 +1,71 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LastModifiedMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        final LastModifiedMap theMap = new LastModifiedMap(4);
+        for (int i = 0; i < 1000; i++) {
+            theMap.put("/home/user/file" + i + ".txt", i);
+        }
+        assertEquals(1000, theMap.size());
+        assertEquals(42, theMap.get("/home/user/file42.txt"));
+        assertEquals(LastModifiedMap.NOT_FOUND, theMap.get("/home/user/unknown.txt"));
+
+        theMap.put("/home/user/file42.txt", 4711);
+        assertEquals(1000, theMap.size());
+        assertEquals(4711, theMap.get("/home/user/file42.txt"));
+
+        for (int i = 0; i < 1000; i += 2) {
+            theMap.remove("/home/user/file" + i + ".txt");
+        }
+        assertEquals(500, theMap.size());
+        for (int i = 0; i < 1000; i++) {
+            final long theExpected = i % 2 == 0 ? LastModifiedMap.NOT_FOUND : i;
+            assertEquals(theExpected, theMap.get("/home/user/file" + i + ".txt"));
+        }
+    }
+
+    @Test
+    public void testSeenFlagSurvivesGrowAndRemove() {
+        final LastModifiedMap theMap = new LastModifiedMap(4);
+        for (int i = 0; i < 1000; i++) {
+            theMap.put("/home/user/file" + i + ".txt", i);
+            if (i % 3 == 0) {
+                assertTrue(theMap.markAsSeen("/home/user/file" + i + ".txt"));
+            }
+        }
+        assertFalse(theMap.markAsSeen("/home/user/unknown.txt"));
+        assertFalse(theMap.isUnseen("/home/user/unknown.txt"));
+
+        for (int i = 0; i < 1000; i += 2) {
+            theMap.remove("/home/user/file" + i + ".txt");
+        }
+        // Updating an entry keeps its flag
+        theMap.put("/home/user/file3.txt", 4711);
+        for (int i = 1; i < 1000; i += 2) {
+            assertEquals(i % 3 != 0, theMap.isUnseen("/home/user/file" + i + ".txt"));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PhraseSuggestIndexTest {
+
+    private static List<String> phrasesOf(final String aContent, final int aMaxPhrases) {
+        final List<String> theResult = new ArrayList<>();
+        PhraseSuggestIndex.phrasesOf(aContent, aMaxPhrases, theResult::add);
+        return theResult;
+    }
+
+    @Test
+    public void testEveryWordSequenceOfASentenceIsPartOfAPhrase() {
+        final List<String> thePhrases = phrasesOf("one two three four five six seven eight nine ten. eleven twelve", 0);
+        assertEquals(Arrays.asList(
+                "one two three four five six seven eight",
+                "two three four five six seven eight nine",
+                "three four five six seven eight nine ten",
+                "eleven twelve"), thePhrases);
+    }
+
+    @Test
+    public void testMaximumNumberOfDistinctPhrases() {
+        assertEquals(Arrays.asList("a b", "c d"), phrasesOf("a b. a b. c d. e f", 2));
+    }
+}
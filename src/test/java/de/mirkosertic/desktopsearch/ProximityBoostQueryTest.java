@@ -0,0 +1,103 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.search.spans.SpanMultiTermQueryWrapper;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProximityBoostQueryTest {
+
+    private static final String[] DOCUMENTS = {
+            "quick brown fox jumps",
+            "fox brown a quick",
+            "foxes are quick and brown",
+            "brown fox quick x brown q fox fox quick",
+            "quick brown fox",
+            "quick a b c brown fox",
+            "quick a b c d e f g h i j k brown fox",
+            "brown x quick y brown z quick quick brown foxy",
+            "quick",
+    };
+
+    @Test
+    public void testScoresAreTheSameAsOneClausePerSlop() throws IOException {
+        final ByteBuffersDirectory theDirectory = new ByteBuffersDirectory();
+        try (final IndexWriter theWriter = new IndexWriter(theDirectory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (final String theText : DOCUMENTS) {
+                final Document theDocument = new Document();
+                theDocument.add(new TextField("content", theText, Field.Store.NO));
+                theWriter.addDocument(theDocument);
+            }
+        }
+
+        try (final DirectoryReader theReader = DirectoryReader.open(theDirectory)) {
+            final IndexSearcher theSearcher = new IndexSearcher(theReader);
+            final SpanQuery[] theClauses = {
+                    new SpanTermQuery(new Term("content", "quick")),
+                    new SpanTermQuery(new Term("content", "brown")),
+                    new SpanMultiTermQueryWrapper<>(new WildcardQuery(new Term("content", "fox*")))
+            };
+
+            // The query QueryParser used before
+            final BooleanQuery.Builder theClausePerSlop = new BooleanQuery.Builder();
+            for (int theSlop = 0; theSlop < 10; theSlop++) {
+                theClausePerSlop.add(new BoostQuery(new SpanNearQuery(theClauses, theSlop, false), 60 - theSlop), BooleanClause.Occur.SHOULD);
+            }
+
+            final Map<Integer, Float> theExpected = scoresOf(theSearcher, theClausePerSlop.build());
+            final Map<Integer, Float> theActual = scoresOf(theSearcher, new ProximityBoostQuery(theClauses, 9, 60));
+
+            assertEquals(theExpected.keySet(), theActual.keySet());
+            for (final Map.Entry<Integer, Float> theEntry : theExpected.entrySet()) {
+                assertEquals("Document " + theEntry.getKey(), theEntry.getValue(), theActual.get(theEntry.getKey()),
+                        theEntry.getValue() * 0.00001f);
+            }
+        }
+    }
+
+    private static Map<Integer, Float> scoresOf(final IndexSearcher aSearcher, final Query aQuery) throws IOException {
+        final Map<Integer, Float> theResult = new HashMap<>();
+        for (final ScoreDoc theHit : aSearcher.search(aQuery, DOCUMENTS.length).scoreDocs) {
+            theResult.put(theHit.doc, theHit.score);
+        }
+        return theResult;
+    }
+}